@@ -0,0 +1,8 @@
+#!/bin/bash
+
+# the benchmarks are not part of the bridge, they are built against ./out after build.sh
+rm -rf ./benchmarkout
+mkdir benchmarkout
+javac -cp ./out:./lib/aws-iot-device-sdk-java-1.1.1.jar:./lib/iotivity.jar -d ./benchmarkout/ @benchmarkfiles.txt
+
+jar -cf AlexaIotivityBridgeBenchmarks.jar -C benchmarkout/ .
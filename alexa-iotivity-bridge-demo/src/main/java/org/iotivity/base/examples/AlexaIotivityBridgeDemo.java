@@ -23,7 +23,6 @@
 package org.iotivity.base.examples;
 
 import org.iotivity.base.ModeType;
-import org.iotivity.base.OcConnectivityType;
 import org.iotivity.base.OcException;
 import org.iotivity.base.OcPlatform;
 import org.iotivity.base.PlatformConfig;
@@ -42,12 +41,13 @@ import com.amazonaws.services.iot.client.sample.sampleUtil.CommandArguments;
 import com.amazonaws.services.iot.client.sample.sampleUtil.SampleUtil;
 import com.amazonaws.services.iot.client.sample.sampleUtil.SampleUtil.KeyStorePasswordPair;
 
+import java.io.File;
 import java.io.IOException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Date;
-import java.util.EnumSet;
 
 /**
  * AlexaIotivityBridgeDemo
@@ -108,10 +108,101 @@ public class AlexaIotivityBridgeDemo {
 
         startIotivityClient(); // creates iotivityClient
 
+        // "incremental" keeps observations across discovery cycles, "full" cancels and rediscovers every cycle
+        String discoveryMode = arguments.get("discoveryMode", "incremental");
+        iotivityClient.setIncrementalDiscovery(!"full".equalsIgnoreCase(discoveryMode));
+        msg("Discovery mode is " + (iotivityClient.isIncrementalDiscovery() ? "incremental" : "full"));
+
+        // "iotivity" or "simulated" adds and removes lights on presence events, polling becomes a slow fallback
+        String presence = arguments.get("presence", "off");
+        boolean presenceEnabled = "iotivity".equalsIgnoreCase(presence) || "simulated".equalsIgnoreCase(presence);
+
+        // The maximum interval must stay below the stale resource window
+        DiscoveryScheduler discoveryScheduler = new DiscoveryScheduler(
+                Integer.parseInt(arguments.get("discoveryBurstInterval", "2")),
+                Integer.parseInt(arguments.get("discoveryInterval", presenceEnabled ? "60" : "10")),
+                Integer.parseInt(arguments.get("discoveryMaxInterval", presenceEnabled ? "120" : "20")));
+        iotivityClient.setDiscoveryScheduler(discoveryScheduler);
+        iotivityClient.setDeviceInfoTtlMillis(Integer.parseInt(arguments.get("deviceInfoTtl", "300")) * 1000L);
+        msg("Discovery schedule is " + discoveryScheduler);
+
+        // Lights not seen for the stale timeout are removed, at most the expiry precision late
+        iotivityClient.setStaleTimeoutMillis(Integer.parseInt(arguments.get("staleTimeout", "30")) * 1000L);
+        iotivityClient.setStaleExpiryPrecisionMillis(Integer.parseInt(arguments.get("staleExpiryPrecision", "1000")));
+
+        if (presenceEnabled) {
+            // presence removes departed lights, the stale timeout only catches missed presence events
+            if (arguments.get("staleTimeout") == null) {
+                iotivityClient.setStaleTimeoutMillis(3 * Integer.parseInt(arguments.get("discoveryMaxInterval", "120")) * 1000L);
+            }
+
+            PresenceSource presenceSource;
+            if ("simulated".equalsIgnoreCase(presence)) {
+                String hosts = arguments.get("simulatedPresenceHosts", "");
+                presenceSource = new SimulatedPresenceSource(Arrays.asList(hosts.split(",")),
+                        Integer.parseInt(arguments.get("simulatedPresencePeriod", "15")));
+            } else {
+                presenceSource = new IotivityPresenceSource();
+            }
+            iotivityClient.startPresence(presenceSource);
+            msg("Presence mode is " + presence + ", stale timeout is " + iotivityClient.getStaleTimeoutMillis() / 1000 + "s");
+        }
+
+        // "unicast" refreshes known hosts directly and only multicasts every few cycles to find new lights
+        boolean unicastRefresh = "unicast".equalsIgnoreCase(arguments.get("refreshMode", "multicast"));
+        int multicastEvery = Math.max(1, Integer.parseInt(arguments.get("multicastEvery", "3")));
+        msg("Refresh mode is " + (unicastRefresh ? "unicast, multicast every " + multicastEvery + " cycles" : "multicast"));
+
+        // A light found on several endpoints is only observed and controlled through one of them
+        String endpointPolicy = arguments.get("endpointPolicy", "rtt");
+        if ("first".equalsIgnoreCase(endpointPolicy)) {
+            iotivityClient.setEndpointPolicy(IotivityClient.EndpointPolicy.FIRST);
+        } else if ("ipv4".equalsIgnoreCase(endpointPolicy)) {
+            iotivityClient.setEndpointPolicy(IotivityClient.EndpointPolicy.IPV4);
+        } else if ("ipv6".equalsIgnoreCase(endpointPolicy)) {
+            iotivityClient.setEndpointPolicy(IotivityClient.EndpointPolicy.IPV6);
+        } else {
+            iotivityClient.setEndpointPolicy(IotivityClient.EndpointPolicy.LOWEST_RTT);
+        }
+        msg("Endpoint policy is " + iotivityClient.getEndpointPolicy());
+
+        // Lights whose observation fails or goes silent are polled instead
+        iotivityClient.setPollIntervalMillis(Integer.parseInt(arguments.get("pollInterval", "5")) * 1000L);
+        iotivityClient.setMaxPollsPerSecond(Integer.parseInt(arguments.get("maxPollsPerSecond", "10")));
+
+        // "workflow" sets up each new light with sequential code on a virtual thread (Java 21 and later)
+        if ("workflow".equalsIgnoreCase(arguments.get("executionMode", "callbacks"))) {
+            iotivityClient.enableWorkflowMode(Integer.parseInt(arguments.get("workflowStepTimeout", "5")) * 1000L);
+        }
+        msg("Execution mode is " + (iotivityClient.isWorkflowMode() ? "workflow" : "callbacks"));
+
+        // Notifications wait for the bridge logic in a bounded queue
+        int notificationQueue = Integer.parseInt(arguments.get("notificationQueue", String.valueOf(DeviceExecutor.DEFAULT_NOTIFICATION_CAPACITY)));
+        iotivityClient.setNotificationQueue(notificationQueue,
+                "dropOldest".equalsIgnoreCase(arguments.get("overflowPolicy", "coalesce"))
+                        ? DeviceExecutor.OverflowPolicy.DROP_OLDEST : DeviceExecutor.OverflowPolicy.COALESCE);
+        iotivityClient.setHighWaterMarks(
+                Integer.parseInt(arguments.get("delayMark", String.valueOf(notificationQueue / 2))),
+                Integer.parseInt(arguments.get("shedMark", String.valueOf(notificationQueue))));
+
+        // A write to a light which is not answered in time fails its command
+        iotivityClient.setCommandTimeoutMillis(Integer.parseInt(arguments.get("commandTimeout", "5")) * 1000L);
+        // State commands to a light within this window are collapsed into the latest one
+        iotivityClient.setCommandWindowMillis(Integer.parseInt(arguments.get("commandWindow", "50")));
+        // "batch" writes switch and brightness of a linked light in one request where the light supports it
+        iotivityClient.setBatchWrites("batch".equalsIgnoreCase(arguments.get("writeMode", "links")));
+        msg("Write mode is " + (iotivityClient.isBatchWrites() ? "batch" : "links"));
+        // "off" writes every command, also where the device already confirmed the desired state
+        iotivityClient.setSuppressNoOpWrites(!"off".equalsIgnoreCase(arguments.get("suppressWrites", "on")));
+
         awsIotClient.setWillMessage(new AWSIotMessage("client/disconnect", AWSIotQos.QOS0, awsIotClient.getClientId()));
 
         String thingName = arguments.getNotNull("thingName", SampleUtil.getConfig("thingName"));
         ConnectedThing connectedThing = new ConnectedThing(thingName, iotivityClient);
+        // Turning all lights on or off sends to this many lights at a time and gives up on stragglers after the group timeout
+        connectedThing.setGroupCommandLimits(
+                Integer.parseInt(arguments.get("groupConcurrency", String.valueOf(GroupCommand.DEFAULT_CONCURRENCY))),
+                Integer.parseInt(arguments.get("groupTimeout", String.valueOf(GroupCommand.DEFAULT_TIMEOUT_MILLIS / 1000))) * 1000L);
 
         awsIotClient.attach(connectedThing);
         awsIotClient.connect();
@@ -124,31 +215,70 @@ public class AlexaIotivityBridgeDemo {
 
         iotivityClient.setConnectedThing(connectedThing);
 
+        // Reuse the lights found by the last run until they are revalidated, "none" disables the cache
+        String deviceCache = arguments.get("deviceCache", "devices.cache");
+        if (!"none".equalsIgnoreCase(deviceCache)) {
+            iotivityClient.setDeviceCacheFile(new DeviceCacheFile(new File(deviceCache)));
+        }
+
+        // On SIGTERM or Ctrl-C discovery ends and the bridge stops within the shutdown timeout
+        final long shutdownTimeoutMillis = Integer.parseInt(arguments.get("shutdownTimeout", "10")) * 1000L;
+        Runtime.getRuntime().addShutdownHook(new Thread("shutdown") {
+            @Override
+            public void run() {
+                shutdown(discoveryScheduler, shutdownTimeoutMillis);
+            }
+        });
+
         AWSIotConnectionStatus status = AWSIotConnectionStatus.DISCONNECTED;
+        int cycle = 0;
 
-        while (true) {
+        while (!discoveryScheduler.isStopped()) {
             AWSIotConnectionStatus newStatus = awsIotClient.getConnectionStatus();
             if (!status.equals(newStatus)) {
                 AlexaIotivityBridgeDemo.msg("Connection status changed to " + newStatus);
                 status = newStatus;
             }
 
-            try {
-//                msg("Finding all resources of type " + Light.OIC_TYPE_DEVICE_LIGHT);
-                String requestUri = OcPlatform.WELL_KNOWN_QUERY + "?rt=" + Light.OIC_TYPE_DEVICE_LIGHT;
-                OcPlatform.findResources("", requestUri, EnumSet.of(OcConnectivityType.CT_DEFAULT), iotivityClient);
+            boolean multicast = !unicastRefresh || discoveryScheduler.isInBurst() || (cycle++ % multicastEvery == 0);
+            if (multicast || (iotivityClient.refreshKnownHosts() == 0)) {
+                try {
+//                    msg("Finding all resources of type " + Light.OIC_TYPE_DEVICE_LIGHT);
+                    iotivityClient.findLights();
 
-            } catch (OcException e) {
-                msgError(e.toString());
-                msgError("Failed to invoke find resource API");
+                } catch (OcException e) {
+                    msgError(e.toString());
+                    msgError("Failed to invoke find resource API");
+                }
             }
 
-            sleep(10);
+            discoveryScheduler.awaitNextDiscovery();
 
-            iotivityClient.cancelObserve();
+            if ((!iotivityClient.isIncrementalDiscovery()) && (!iotivityClient.isStopping())) {
+                iotivityClient.cancelObserve();
+            }
         }
     }
 
+    /**
+     * Stops discovery, then the iotivity client and finally the connection to AWS IoT
+     */
+    private static void shutdown(DiscoveryScheduler discoveryScheduler, long timeoutMillis) {
+        long startMillis = System.currentTimeMillis();
+        msg("Stopping, allowing " + timeoutMillis / 1000 + "s");
+        discoveryScheduler.stop();
+
+        boolean clean = iotivityClient.stop(timeoutMillis);
+        try {
+            awsIotClient.disconnect(Math.max(1, startMillis + timeoutMillis - System.currentTimeMillis()), true);
+
+        } catch (AWSIotException | AWSIotTimeoutException e) {
+            msgError("Failed to disconnect -- " + e.toString());
+            clean = false;
+        }
+        msg("Shutdown " + (clean ? "completed" : "timed out or failed") + " in " + (System.currentTimeMillis() - startMillis) + " ms");
+    }
+
     public static void publishUpdatePayload(final String payload) {
         AWSIotMessage message = new UpdatePublisherListener(UpdateTopic, TopicQos, payload);
 
@@ -159,14 +289,6 @@ public class AlexaIotivityBridgeDemo {
         }
     }
 
-    private static void sleep(int seconds) {
-        try {
-            Thread.sleep(seconds * 1000);
-        } catch (InterruptedException e) {
-            msgError(e.toString());
-        }
-    }
-
     public static void msg(final String text) {
         DateFormat dateFormat = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss");
         Date date = new Date();
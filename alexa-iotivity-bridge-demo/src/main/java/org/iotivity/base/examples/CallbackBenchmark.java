@@ -0,0 +1,203 @@
+/*
+ *******************************************************************
+ *
+ * Copyright 2017 Intel Corporation.
+ *
+ *-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=
+ */
+
+
+package org.iotivity.base.examples;
+
+import com.amazonaws.services.iot.client.sample.sampleUtil.CommandArguments;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * CallbackBenchmark
+ *
+ * Measures callback throughput with a single lock around all callbacks (the way IotivityClient used
+ * to handle them) against per-device lanes (DeviceExecutor). Simulated native threads deliver
+ * callbacks for a fleet of devices, one of which is slow, and no IoTivity stack is needed.
+ *
+ * Usage: CallbackBenchmark -devices 100 -callbacks 200 -nativeThreads 4 -laneThreads <cores>
+ *                          -workMicros 50 -slowMillis 20
+ */
+public class CallbackBenchmark {
+
+    private final int mDeviceCount;
+    private final int mCallbacksPerDevice;
+    private final int mNativeThreadCount;
+    private final int mLaneThreadCount;
+    private final long mWorkNanos;
+    private final long mSlowMillis;
+
+    // last sequence number handled for each device, to check that lanes keep the order
+    private final int[] mLastSequence;
+    private final AtomicLong mOutOfOrderCount = new AtomicLong();
+    private final AtomicLong mMaxCallbackNanos = new AtomicLong();
+    private final AtomicLong mTotalCallbackNanos = new AtomicLong();
+
+    public CallbackBenchmark(int deviceCount, int callbacksPerDevice, int nativeThreadCount, int laneThreadCount,
+                             long workMicros, long slowMillis) {
+        mDeviceCount = deviceCount;
+        mCallbacksPerDevice = callbacksPerDevice;
+        mNativeThreadCount = nativeThreadCount;
+        mLaneThreadCount = laneThreadCount;
+        mWorkNanos = workMicros * 1000;
+        mSlowMillis = slowMillis;
+        mLastSequence = new int[deviceCount];
+    }
+
+    /**
+     * How a callback is handed to the bridge logic
+     */
+    interface Dispatcher {
+        void dispatch(int device, int sequence, CountDownLatch done);
+    }
+
+    /**
+     * Runs all callbacks through a dispatcher and logs the throughput
+     */
+    private void run(String name, Dispatcher dispatcher) throws InterruptedException {
+        final int total = mDeviceCount * mCallbacksPerDevice;
+        final CountDownLatch done = new CountDownLatch(total);
+        final Dispatcher callbackDispatcher = dispatcher;
+        Arrays.fill(mLastSequence, -1);
+        mOutOfOrderCount.set(0);
+        mMaxCallbackNanos.set(0);
+        mTotalCallbackNanos.set(0);
+
+        long start = System.nanoTime();
+        Thread[] nativeThreads = new Thread[mNativeThreadCount];
+        for (int t = 0; t < mNativeThreadCount; ++t) {
+            final int firstDevice = t;
+            nativeThreads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    // each native thread delivers the callbacks of its share of the devices, in order
+                    for (int sequence = 0; sequence < mCallbacksPerDevice; ++sequence) {
+                        for (int device = firstDevice; device < mDeviceCount; device += mNativeThreadCount) {
+                            long callbackStart = System.nanoTime();
+                            callbackDispatcher.dispatch(device, sequence, done);
+                            long callbackNanos = System.nanoTime() - callbackStart;
+                            mTotalCallbackNanos.addAndGet(callbackNanos);
+                            long max;
+                            while (callbackNanos > (max = mMaxCallbackNanos.get())
+                                    && !mMaxCallbackNanos.compareAndSet(max, callbackNanos)) {
+                            }
+                        }
+                    }
+                }
+            }, "native-" + t);
+            nativeThreads[t].start();
+        }
+        for (Thread thread : nativeThreads) {
+            thread.join();
+        }
+        done.await();
+        long elapsedNanos = System.nanoTime() - start;
+
+        msg(String.format("%-12s %8d callbacks in %6d ms, %9.0f callbacks/s, native thread held avg %6.1f us max %6.1f ms, out of order %d",
+                name, total, elapsedNanos / 1000000, total * 1e9 / elapsedNanos,
+                mTotalCallbackNanos.get() / 1000.0 / total, mMaxCallbackNanos.get() / 1e6, mOutOfOrderCount.get()));
+    }
+
+    /**
+     * The bridge logic of a single callback, device 0 is slow
+     */
+    private void handle(int device, int sequence) {
+        if (sequence <= mLastSequence[device]) {
+            mOutOfOrderCount.incrementAndGet();
+        }
+        mLastSequence[device] = sequence;
+
+        if ((device == 0) && (mSlowMillis > 0)) {
+            try {
+                Thread.sleep(mSlowMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        long end = System.nanoTime() + mWorkNanos;
+        while (System.nanoTime() < end) {
+            // decoding and shadow building
+        }
+    }
+
+    public void runGlobalLock() throws InterruptedException {
+        final Object lock = new Object();
+        run("global lock", new Dispatcher() {
+            @Override
+            public void dispatch(int device, int sequence, CountDownLatch done) {
+                synchronized (lock) {
+                    handle(device, sequence);
+                }
+                done.countDown();
+            }
+        });
+    }
+
+    public void runDeviceLanes() throws InterruptedException {
+        final DeviceExecutor deviceExecutor = new DeviceExecutor(mLaneThreadCount);
+        run("device lanes", new Dispatcher() {
+            @Override
+            public void dispatch(final int device, final int sequence, final CountDownLatch done) {
+                deviceExecutor.execute("/light/" + device, new Runnable() {
+                    @Override
+                    public void run() {
+                        handle(device, sequence);
+                        done.countDown();
+                    }
+                });
+            }
+        });
+        deviceExecutor.shutdown(1000);
+    }
+
+    public static void main(String args[]) throws InterruptedException {
+        CommandArguments arguments = CommandArguments.parse(args);
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        CallbackBenchmark benchmark = new CallbackBenchmark(
+                Integer.parseInt(arguments.get("devices", "100")),
+                Integer.parseInt(arguments.get("callbacks", "200")),
+                Integer.parseInt(arguments.get("nativeThreads", "4")),
+                Integer.parseInt(arguments.get("laneThreads", String.valueOf(cores))),
+                Long.parseLong(arguments.get("workMicros", "50")),
+                Long.parseLong(arguments.get("slowMillis", "20")));
+
+        msg("Cores: " + cores);
+        // the first round warms up the jit
+        for (int round = 0; round < 2; ++round) {
+            benchmark.runGlobalLock();
+            benchmark.runDeviceLanes();
+        }
+    }
+
+    public static void msg(final String text) {
+        DateFormat dateFormat = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss.SSS");
+        Date date = new Date();
+        System.out.println(dateFormat.format(date) + " " + text);
+    }
+}
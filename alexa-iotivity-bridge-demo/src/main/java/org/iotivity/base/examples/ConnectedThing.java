@@ -24,6 +24,18 @@ package org.iotivity.base.examples;
 
 import com.amazonaws.services.iot.client.AWSIotDevice;
 import com.amazonaws.services.iot.client.AWSIotDeviceProperty;
+import com.amazonaws.services.iot.client.AWSIotException;
+import com.amazonaws.services.iot.client.AWSIotTimeoutException;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
 
 /**
  * This class encapsulates an actual device. It extends {@link AWSIotDevice} to
@@ -33,11 +45,17 @@ public class ConnectedThing extends AWSIotDevice {
 
     static private IotivityClient iotivityClient;
 
+    // replaced as a whole by the publishing lane and read by the shadow sync threads, never changed in place
     @AWSIotDeviceProperty
-    private LightDevice[] lightDevices = new LightDevice[0];
+    private volatile LightDevice[] lightDevices = new LightDevice[0];
 
 //    @AWSIotDeviceProperty
-    private int lightState; // global light state
+    private volatile int lightState; // global light state
+
+    // a change of the global light state is sent to all lights, a bounded number at a time
+    private volatile int groupConcurrency = GroupCommand.DEFAULT_CONCURRENCY;
+    private volatile long groupTimeoutMillis = GroupCommand.DEFAULT_TIMEOUT_MILLIS;
+    private final AtomicReference<GroupCommand> groupCommand = new AtomicReference<>();
 
     public ConnectedThing(String thingName, IotivityClient iotivityClient) {
         super(thingName);
@@ -58,11 +76,41 @@ public class ConnectedThing extends AWSIotDevice {
         lightState = desiredState;
         AlexaIotivityBridgeDemo.msg("<<< desired lightState to " + (desiredState != 0 ? "on" : "off"));
 
-        // 2. tell the iotivity client to update iotivity resources
+        // 2. tell the iotivity client to update iotivity resources, all lights in parallel
+        final boolean powerOn = (desiredState != 0);
+        final Map<String, Integer> brightnessLookup = new HashMap<>(); // keyed by uri
+        List<String> uris = new ArrayList<>();
         for (LightDevice lightDevice : lightDevices) {
-            lightDevice.setPowerOn(desiredState != 0);
-            iotivityClient.updateLight(lightDevice.getName(), desiredState != 0, lightDevice.getBrightness());
+            // the light devices are only changed on the lanes, by the state the lights report back
+            if (lightDevice.brightness >= 0) {
+                brightnessLookup.put(lightDevice.uri, lightDevice.brightness);
+                uris.add(lightDevice.uri);
+            }
+        }
+
+        GroupCommand lightStateCommand = new GroupCommand("lightState " + (powerOn ? "on" : "off"), uris,
+                new GroupCommand.DeviceCommand() {
+                    @Override
+                    public CompletableFuture<IotivityClient.CommandResult> send(String uri) {
+                        return iotivityClient.updateLight(uri, powerOn, brightnessLookup.get(uri));
+                    }
+                }, groupConcurrency, groupTimeoutMillis);
+
+        // lights not reached yet by an earlier light state are left to this one
+        GroupCommand previousCommand = groupCommand.getAndSet(lightStateCommand);
+        if (previousCommand != null) {
+            previousCommand.cancel();
         }
+        lightStateCommand.start().whenComplete(new GroupReporter());
+    }
+
+    /**
+     * @param concurrency   largest number of lights waiting for an answer to a global light state at a time
+     * @param timeoutMillis a global light state gives up on the lights which have not answered after this long
+     */
+    public void setGroupCommandLimits(int concurrency, long timeoutMillis) {
+        groupConcurrency = Math.max(1, concurrency);
+        groupTimeoutMillis = Math.max(1, timeoutMillis);
     }
 
     public LightDevice[] getLightDevices() {
@@ -78,19 +126,106 @@ public class ConnectedThing extends AWSIotDevice {
         }
     }
 
+    /**
+     * Reports the current light devices to the shadow straight away instead of at the next report interval
+     *
+     * @return true if the shadow accepted the report in time
+     */
+    public boolean flush(long timeoutMillis) {
+        try {
+            update(onDeviceReport(), timeoutMillis);
+            return true;
+
+        } catch (AWSIotException | AWSIotTimeoutException e) {
+            AlexaIotivityBridgeDemo.msgError("Failed to flush the shadow document -- " + e.toString());
+            return false;
+        }
+    }
+
+    /**
+     * Logs the outcome of a command sent to a light on behalf of the shadow
+     */
+    static class CommandReporter implements BiConsumer<IotivityClient.CommandResult, Throwable> {
+
+        private final String mUri;
+        private final String mProperty;
+
+        CommandReporter(String uri, String property) {
+            mUri = uri;
+            mProperty = property;
+        }
+
+        @Override
+        public void accept(IotivityClient.CommandResult result, Throwable throwable) {
+            if (throwable != null) {
+                AlexaIotivityBridgeDemo.msgError("Setting " + mProperty + " of light " + mUri + " failed -- " + throwable.toString());
+            } else {
+                AlexaIotivityBridgeDemo.msg("Set " + mProperty + " of light " + mUri + " in " + result.getLatencyMillis()
+                        + " ms (" + result.getWriteCount() + " writes)");
+            }
+        }
+    }
+
+    /**
+     * Logs the outcome of a command sent to all lights: latency percentiles, failures and stragglers
+     */
+    static class GroupReporter implements BiConsumer<GroupCommand.Result, Throwable> {
+
+        @Override
+        public void accept(GroupCommand.Result result, Throwable throwable) {
+            if (throwable != null) {
+                AlexaIotivityBridgeDemo.msgError("Group command failed -- " + throwable.toString());
+                return;
+            }
+
+            if (result.isConverged()) {
+                AlexaIotivityBridgeDemo.msg("Group " + result.toString());
+            } else {
+                AlexaIotivityBridgeDemo.msgError("Group " + result.toString());
+                for (Map.Entry<String, Throwable> failure : result.getFailures().entrySet()) {
+                    AlexaIotivityBridgeDemo.msgError("  failed: " + failure.getKey() + " -- " + failure.getValue().toString());
+                }
+                for (String uri : result.getStragglers()) {
+                    AlexaIotivityBridgeDemo.msgError("  straggler: " + uri);
+                }
+            }
+        }
+    }
+
     static public class LightDevice {
 
+        // case insensitive, locale aware ordering of device names
+        private static final Collator nameCollator = Collator.getInstance();
+        static {
+            nameCollator.setStrength(Collator.SECONDARY);
+        }
+
+        // written on the lane of the light, read by the shadow sync threads
         @AWSIotDeviceProperty
-        private String uri = "";
+        private volatile String uri = "";
 
         @AWSIotDeviceProperty
-        private String name = "";
+        private volatile String name = "";
 
         @AWSIotDeviceProperty
-        private boolean powerOn;
+        private volatile boolean powerOn;
 
         @AWSIotDeviceProperty
-        private int brightness = -1; // uninitialized
+        private volatile int brightness = -1; // uninitialized
+
+        private volatile CollationKey collationKey = nameCollator.getCollationKey("");
+
+        public LightDevice() {
+        }
+
+        /**
+         * A device with a name which is not sent to the light, for example a device read back from storage
+         */
+        LightDevice(String uri, String name) {
+            this.uri = uri;
+            this.name = name;
+            updateCollationKey();
+        }
 
         public String getUri() {
             String reportedUri = uri;
@@ -101,6 +236,7 @@ public class ConnectedThing extends AWSIotDevice {
         public void setUri(String desiredUri) {
             uri = desiredUri;
             AlexaIotivityBridgeDemo.msg("<<< desired uri: " + desiredUri);
+            updateCollationKey();
         }
 
         public String getName() {
@@ -122,10 +258,39 @@ public class ConnectedThing extends AWSIotDevice {
 
                 // update names property file
                 NamesPropertyFile.getInstance().updateNamesProperty(uri, name);
-                iotivityClient.updateLight(uri, name);
+                updateCollationKey();
+                iotivityClient.updateLight(uri, name).whenComplete(new CommandReporter(uri, "name"));
+            }
+        }
+
+        /**
+         * @return collation key of the reported name, only recomputed when the name changes
+         */
+        CollationKey getCollationKey() {
+            return collationKey;
+        }
+
+        private void updateCollationKey() {
+            String reportedName = getName();
+            if (!collationKey.getSourceString().equals(reportedName)) {
+                collationKey = nameCollator.getCollationKey(reportedName);
             }
         }
 
+        /**
+         * Takes the power state reported by the light, without sending it back to the light. Called on the lane of the light.
+         */
+        void reportPowerOn(boolean reportedPowerOn) {
+            powerOn = reportedPowerOn;
+        }
+
+        /**
+         * Takes the brightness reported by the light, without sending it back to the light. Called on the lane of the light.
+         */
+        void reportBrightness(int reportedBrightness) {
+            brightness = reportedBrightness;
+        }
+
         public boolean getPowerOn() {
             boolean reportedPowerOn = powerOn;
 //            AlexaIotivityBridgeDemo.msg(">>> reported powerOn: " + reportedPowerOn);
@@ -139,7 +304,7 @@ public class ConnectedThing extends AWSIotDevice {
                 AlexaIotivityBridgeDemo.msg("<<< desired powerOn: " + desiredPowerOn);
                 
                 if (brightness >= 0) {
-                    iotivityClient.updateLight(uri, powerOn, brightness);
+                    iotivityClient.updateLight(uri, powerOn, brightness).whenComplete(new CommandReporter(uri, "powerOn"));
                 }
             }
         }
@@ -156,7 +321,7 @@ public class ConnectedThing extends AWSIotDevice {
 
                 AlexaIotivityBridgeDemo.msg("<<< desired brightness: " + brightness);
 
-                iotivityClient.updateLight(uri, powerOn, brightness);
+                iotivityClient.updateLight(uri, powerOn, brightness).whenComplete(new CommandReporter(uri, "brightness"));
             }
         }
     }
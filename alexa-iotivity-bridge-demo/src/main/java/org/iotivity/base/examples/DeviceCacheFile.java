@@ -0,0 +1,182 @@
+/*
+ *******************************************************************
+ *
+ * Copyright 2017 Intel Corporation.
+ *
+ *-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=
+ */
+
+
+package org.iotivity.base.examples;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * DeviceCacheFile
+ *
+ * A snapshot of the resolved lights, so that a restarted bridge can use the last known
+ * lights straight away and revalidate them in the background. For each light the uri,
+ * host, links and last known name, power and brightness are kept.
+ */
+public class DeviceCacheFile {
+
+    private static final String COUNT_KEY = "count";
+    private static final String URI_KEY = ".uri";
+    private static final String HOST_KEY = ".host";
+    private static final String NAME_KEY = ".name";
+    private static final String POWER_ON_KEY = ".powerOn";
+    private static final String BRIGHTNESS_KEY = ".brightness";
+    private static final String LINK_COUNT_KEY = ".links";
+    private static final String HREF_KEY = ".href";
+    private static final String RT_KEY = ".rt";
+
+    private final File mFile;
+
+    public DeviceCacheFile(File file) {
+        mFile = file;
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    /**
+     * A cached light.
+     */
+    public static class CachedLight {
+        public String uri = "";
+        public String host = "";
+        public String name = "";
+        public boolean powerOn;
+        public int brightness = Brightness.DEFAULT_BRIGHTNESS;
+        public List<String> linkHrefs = new ArrayList<>();
+        public List<String> linkTypes = new ArrayList<>();
+
+        @Override
+        public String toString() {
+            return "[uri: " + uri + ", host: " + host + ", name: " + name + ", powerOn: " + powerOn
+                    + ", brightness: " + brightness + ", links: " + linkHrefs + "]";
+        }
+    }
+
+    public List<CachedLight> load() {
+        List<CachedLight> cachedLights = new ArrayList<>();
+        if (!mFile.exists() || mFile.length() == 0) {
+            return cachedLights;
+        }
+
+        Properties properties = new Properties();
+        FileInputStream inStream = null;
+        try {
+            inStream = new FileInputStream(mFile);
+            properties.load(inStream);
+
+            int count = Integer.parseInt(properties.getProperty(COUNT_KEY, "0"));
+            for (int i = 0; i < count; ++i) {
+                String prefix = Integer.toString(i);
+                CachedLight cachedLight = new CachedLight();
+                cachedLight.uri = properties.getProperty(prefix + URI_KEY, "");
+                cachedLight.host = properties.getProperty(prefix + HOST_KEY, "");
+                cachedLight.name = properties.getProperty(prefix + NAME_KEY, "");
+                cachedLight.powerOn = Boolean.parseBoolean(properties.getProperty(prefix + POWER_ON_KEY));
+                cachedLight.brightness = Integer.parseInt(properties.getProperty(prefix + BRIGHTNESS_KEY,
+                        Integer.toString(Brightness.DEFAULT_BRIGHTNESS)));
+
+                int linkCount = Integer.parseInt(properties.getProperty(prefix + LINK_COUNT_KEY, "0"));
+                for (int j = 0; j < linkCount; ++j) {
+                    String linkPrefix = prefix + "." + j;
+                    cachedLight.linkHrefs.add(properties.getProperty(linkPrefix + HREF_KEY, ""));
+                    cachedLight.linkTypes.add(properties.getProperty(linkPrefix + RT_KEY, ""));
+                }
+
+                if (!cachedLight.uri.isEmpty() && !cachedLight.host.isEmpty()) {
+                    cachedLights.add(cachedLight);
+                }
+            }
+
+        } catch (IOException | NumberFormatException e) {
+            AlexaIotivityBridgeDemo.msgError("Error loading device cache: " + e.toString());
+            cachedLights.clear();
+
+        } finally {
+            if (inStream != null) {
+                try {
+                    inStream.close();
+                } catch (IOException e) {
+                    AlexaIotivityBridgeDemo.msgError("Error closing device cache file: " + e.toString());
+                }
+            }
+        }
+
+        return cachedLights;
+    }
+
+    public void save(List<CachedLight> cachedLights) {
+        Properties properties = new Properties();
+        properties.setProperty(COUNT_KEY, Integer.toString(cachedLights.size()));
+        int i = 0;
+        for (CachedLight cachedLight : cachedLights) {
+            String prefix = Integer.toString(i++);
+            properties.setProperty(prefix + URI_KEY, cachedLight.uri);
+            properties.setProperty(prefix + HOST_KEY, cachedLight.host);
+            properties.setProperty(prefix + NAME_KEY, cachedLight.name);
+            properties.setProperty(prefix + POWER_ON_KEY, Boolean.toString(cachedLight.powerOn));
+            properties.setProperty(prefix + BRIGHTNESS_KEY, Integer.toString(cachedLight.brightness));
+            properties.setProperty(prefix + LINK_COUNT_KEY, Integer.toString(cachedLight.linkHrefs.size()));
+            for (int j = 0; j < cachedLight.linkHrefs.size(); ++j) {
+                String linkPrefix = prefix + "." + j;
+                properties.setProperty(linkPrefix + HREF_KEY, cachedLight.linkHrefs.get(j));
+                properties.setProperty(linkPrefix + RT_KEY, cachedLight.linkTypes.get(j));
+            }
+        }
+
+        // write to a temporary file first so a crash never leaves a truncated cache
+        File tempFile = new File(mFile.getPath() + ".tmp");
+        FileOutputStream outStream = null;
+        try {
+            outStream = new FileOutputStream(tempFile);
+            properties.store(outStream, null);
+            outStream.close();
+            outStream = null;
+
+            if (!tempFile.renameTo(mFile)) {
+                mFile.delete();
+                if (!tempFile.renameTo(mFile)) {
+                    AlexaIotivityBridgeDemo.msgError("Error replacing device cache file " + mFile);
+                }
+            }
+
+        } catch (IOException e) {
+            AlexaIotivityBridgeDemo.msgError("Error storing device cache: " + e.toString());
+
+        } finally {
+            if (outStream != null) {
+                try {
+                    outStream.close();
+                } catch (IOException e) {
+                    AlexaIotivityBridgeDemo.msgError("Error closing device cache file: " + e.toString());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,520 @@
+/*
+ *******************************************************************
+ *
+ * Copyright 2017 Intel Corporation.
+ *
+ *-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=
+ */
+
+
+package org.iotivity.base.examples;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * DeviceExecutor
+ *
+ * DeviceExecutor runs tasks in order per device (lane) on a shared thread pool. Tasks of one device
+ * never run concurrently, while tasks of different devices run in parallel, so a slow device only
+ * delays its own events.
+ *
+ * Notifications (state reported by a resource) are bounded: once the capacity is reached the
+ * overflow policy makes room by dropping the oldest notification, and with COALESCE a newer
+ * notification for a resource replaces the one still queued for it, at the tail of the lane.
+ *
+ * Low priority tasks (such as refreshing a light which is already known) give way to notifications:
+ * above the delay mark they wait until the backlog has drained below it, keeping only the latest
+ * task of each kind per resource, and above the shed mark they are dropped.
+ */
+public class DeviceExecutor {
+
+    public enum OverflowPolicy {
+        COALESCE,       // keep only the latest queued notification per resource, drop the oldest when full
+        DROP_OLDEST     // queue every notification, drop the oldest when full
+    }
+
+    public static final int DEFAULT_NOTIFICATION_CAPACITY = 1000;
+
+    /**
+     * How low priority tasks are treated at the current backlog of notifications
+     */
+    public enum Load {
+        NORMAL,         // run as usual
+        DELAY,          // wait until the backlog is below the delay mark
+        SHED            // drop
+    }
+
+    // A lane gives up its thread after this many tasks so that a busy device can not starve the others
+    private static final int MAX_TASKS_PER_TURN = 16;
+
+    private final ExecutorService mExecutor;
+    private final Map<String, Lane> mLanes = new HashMap<>(); // guarded by itself
+    private final LinkedHashSet<Notification> mQueuedNotifications = new LinkedHashSet<>(); // guarded by mLanes, oldest first
+    private final LinkedHashMap<String, DelayedTask> mDelayedTasks = new LinkedHashMap<>(); // guarded by mLanes, keyed by kind and resource uri
+
+    private int mNotificationCapacity = DEFAULT_NOTIFICATION_CAPACITY;
+    private OverflowPolicy mOverflowPolicy = OverflowPolicy.COALESCE;
+    private int mDelayMark = DEFAULT_NOTIFICATION_CAPACITY / 2;
+    private int mShedMark = DEFAULT_NOTIFICATION_CAPACITY;
+    private long mCoalescedCount;
+    private long mDroppedCount;
+    private long mDelayedCount;
+    private long mReplacedDelayedCount;
+    private long mShedCount;
+    private boolean mStopped; // guarded by mLanes
+    private long mRejectedCount;
+
+    public DeviceExecutor(int threadCount) {
+        mExecutor = Executors.newFixedThreadPool(Math.max(1, threadCount), new LaneThreadFactory());
+    }
+
+    /**
+     * Queues a task on the lane of a device
+     *
+     * @param key  device key, usually the uri of the light
+     * @param task task to run after the earlier tasks of the device
+     */
+    public void execute(String key, Runnable task) {
+        Lane lane;
+        synchronized (mLanes) {
+            if (mStopped) {
+                ++mRejectedCount;
+                return;
+            }
+            lane = getLane(key);
+            lane.mTasks.add(task);
+            if (lane.mScheduled) {
+                return;
+            }
+            lane.mScheduled = true;
+        }
+        schedule(lane);
+    }
+
+    /**
+     * Queues a notification on the lane of a device, subject to the capacity and overflow policy
+     *
+     * @param key         device key, usually the uri of the light
+     * @param resourceUri uri of the resource the notification is for
+     * @param task        task handling the notification
+     */
+    public void executeNotification(String key, String resourceUri, Runnable task) {
+        Lane lane;
+        synchronized (mLanes) {
+            if (mStopped) {
+                ++mRejectedCount;
+                return;
+            }
+            lane = getLane(key);
+            if (mOverflowPolicy == OverflowPolicy.COALESCE) {
+                Notification queued = lane.mQueuedNotifications.remove(resourceUri);
+                if (queued != null) {
+                    // the newer state replaces the queued one and goes to the tail, behind the answers queued
+                    // since, so that an older answer can not overwrite it
+                    queued.mDropped = true;
+                    queued.mTask = null;
+                    lane.mTasks.remove(queued);
+                    mQueuedNotifications.remove(queued);
+                    ++mCoalescedCount;
+                }
+            }
+
+            while (mQueuedNotifications.size() >= mNotificationCapacity) {
+                Iterator<Notification> oldest = mQueuedNotifications.iterator();
+                Notification dropped = oldest.next();
+                oldest.remove();
+                // the oldest notification is near the head of its lane, and its state is released straight away
+                dropped.mDropped = true;
+                dropped.mTask = null;
+                dropped.mLane.mTasks.remove(dropped);
+                dropped.mLane.mQueuedNotifications.remove(dropped.mResourceUri, dropped);
+                ++mDroppedCount;
+            }
+
+            Notification notification = new Notification(lane, resourceUri, task);
+            mQueuedNotifications.add(notification);
+            lane.mQueuedNotifications.put(resourceUri, notification);
+            lane.mTasks.add(notification);
+            if (lane.mScheduled) {
+                return;
+            }
+            lane.mScheduled = true;
+        }
+        schedule(lane);
+    }
+
+    /**
+     * Queues a low priority task on the lane of a device, unless notifications are backing up
+     *
+     * @param key         device key, usually the uri of the light
+     * @param kind        kind of task, such as a poll or a rediscovery
+     * @param resourceUri uri of the resource the task is for, a later task of the same kind for it replaces a delayed one
+     * @param task        task to run
+     * @return false if the task was shed, or the executor has been shut down
+     */
+    public boolean executeLowPriority(String key, String kind, String resourceUri, Runnable task) {
+        List<DelayedTask> releasedTasks;
+        synchronized (mLanes) {
+            if (mStopped) {
+                ++mRejectedCount;
+                return false;
+            }
+            switch (getLoadLocked()) {
+                case SHED:
+                    ++mShedCount;
+                    return false;
+
+                case DELAY:
+                    if (mDelayedTasks.put(kind + " " + resourceUri, new DelayedTask(key, task)) == null) {
+                        ++mDelayedCount;
+                    } else {
+                        ++mReplacedDelayedCount;
+                    }
+                    return true;
+
+                default:
+                    releasedTasks = takeDelayedTasks();
+                    break;
+            }
+        }
+        executeAll(releasedTasks);
+        execute(key, task);
+        return true;
+    }
+
+    private List<DelayedTask> takeDelayedTasks() {
+        if (mDelayedTasks.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<DelayedTask> delayedTasks = new ArrayList<>(mDelayedTasks.values());
+        mDelayedTasks.clear();
+        return delayedTasks;
+    }
+
+    private void executeAll(List<DelayedTask> delayedTasks) {
+        for (DelayedTask delayedTask : delayedTasks) {
+            execute(delayedTask.mKey, delayedTask.mTask);
+        }
+    }
+
+    /**
+     * Hands a lane to the pool, if the pool has already stopped the tasks of the lane are dropped
+     */
+    private void schedule(Lane lane) {
+        try {
+            mExecutor.execute(lane);
+
+        } catch (RejectedExecutionException e) {
+            synchronized (mLanes) {
+                mRejectedCount += lane.mTasks.size();
+                for (Notification notification : lane.mQueuedNotifications.values()) {
+                    mQueuedNotifications.remove(notification);
+                }
+                lane.mQueuedNotifications.clear();
+                lane.mTasks.clear();
+                lane.mScheduled = false;
+                mLanes.remove(lane.mKey, lane);
+            }
+        }
+    }
+
+    private Load getLoadLocked() {
+        int queued = mQueuedNotifications.size();
+        if (queued >= mShedMark) {
+            return Load.SHED;
+        }
+        return (queued >= mDelayMark) ? Load.DELAY : Load.NORMAL;
+    }
+
+    private Lane getLane(String key) {
+        Lane lane = mLanes.get(key);
+        if (lane == null) {
+            lane = new Lane(key);
+            mLanes.put(key, lane);
+        }
+        return lane;
+    }
+
+    public void setNotificationCapacity(int notificationCapacity) {
+        synchronized (mLanes) {
+            mNotificationCapacity = Math.max(1, notificationCapacity);
+        }
+    }
+
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        synchronized (mLanes) {
+            mOverflowPolicy = overflowPolicy;
+        }
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        synchronized (mLanes) {
+            return mOverflowPolicy;
+        }
+    }
+
+    /**
+     * Sets the backlogs of queued notifications at which low priority tasks are delayed and shed
+     */
+    public void setHighWaterMarks(int delayMark, int shedMark) {
+        synchronized (mLanes) {
+            mShedMark = Math.max(1, shedMark);
+            mDelayMark = Math.max(0, Math.min(delayMark, mShedMark));
+        }
+    }
+
+    public int getDelayMark() {
+        synchronized (mLanes) {
+            return mDelayMark;
+        }
+    }
+
+    public int getShedMark() {
+        synchronized (mLanes) {
+            return mShedMark;
+        }
+    }
+
+    /**
+     * @return how low priority tasks are treated at the current backlog
+     */
+    public Load getLoad() {
+        synchronized (mLanes) {
+            return getLoadLocked();
+        }
+    }
+
+    /**
+     * @return number of notifications waiting to be handled
+     */
+    public int getQueuedNotificationCount() {
+        synchronized (mLanes) {
+            return mQueuedNotifications.size();
+        }
+    }
+
+    /**
+     * @return number of notifications replaced by a newer one for the same resource
+     */
+    public long getCoalescedCount() {
+        synchronized (mLanes) {
+            return mCoalescedCount;
+        }
+    }
+
+    /**
+     * @return number of notifications dropped because the queue was full
+     */
+    public long getDroppedCount() {
+        synchronized (mLanes) {
+            return mDroppedCount;
+        }
+    }
+
+    /**
+     * @return number of low priority tasks which had to wait for the backlog to drain
+     */
+    public long getDelayedCount() {
+        synchronized (mLanes) {
+            return mDelayedCount;
+        }
+    }
+
+    /**
+     * @return number of delayed low priority tasks replaced by a later one of the same kind for the same resource
+     */
+    public long getReplacedDelayedCount() {
+        synchronized (mLanes) {
+            return mReplacedDelayedCount;
+        }
+    }
+
+    /**
+     * @return number of low priority tasks dropped because of the backlog
+     */
+    public long getShedCount() {
+        synchronized (mLanes) {
+            return mShedCount;
+        }
+    }
+
+    /**
+     * @return number of tasks dropped because they came in after shutdown, or were still queued when the pool stopped
+     */
+    public long getRejectedCount() {
+        synchronized (mLanes) {
+            return mRejectedCount;
+        }
+    }
+
+    /**
+     * @return number of devices with queued or running tasks
+     */
+    public int getActiveLaneCount() {
+        synchronized (mLanes) {
+            return mLanes.size();
+        }
+    }
+
+    /**
+     * Waits for the queued tasks to finish and stops, tasks queued from then on are dropped and counted
+     *
+     * @return true if all tasks finished within the timeout
+     */
+    public boolean shutdown(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        // lanes resubmit themselves, so wait for them to drain before the pool stops accepting work
+        while (getActiveLaneCount() > 0) {
+            if (System.currentTimeMillis() >= deadline) {
+                break;
+            }
+            Thread.sleep(10);
+        }
+        synchronized (mLanes) {
+            mStopped = true;
+            mRejectedCount += mDelayedTasks.size();
+            mDelayedTasks.clear();
+        }
+        mExecutor.shutdown();
+        return mExecutor.awaitTermination(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * The tasks of a single device, run by at most one pool thread at a time
+     */
+    class Lane implements Runnable {
+
+        private final String mKey;
+        private final Queue<Runnable> mTasks = new ArrayDeque<>();
+        private final Map<String, Notification> mQueuedNotifications = new HashMap<>(); // keyed by resource uri
+        private boolean mScheduled;
+
+        Lane(String key) {
+            mKey = key;
+        }
+
+        @Override
+        public void run() {
+            for (int i = 0; i < MAX_TASKS_PER_TURN; ++i) {
+                Runnable task;
+                List<DelayedTask> releasedTasks = Collections.emptyList();
+                synchronized (mLanes) {
+                    task = mTasks.poll();
+                    while (task instanceof Notification) {
+                        Notification notification = (Notification) task;
+                        if (!notification.mDropped) {
+                            // taken, a later notification for the resource is queued again
+                            DeviceExecutor.this.mQueuedNotifications.remove(notification);
+                            mQueuedNotifications.remove(notification.mResourceUri, notification);
+                            task = notification.mTask;
+                            break;
+                        }
+                        task = mTasks.poll();
+                    }
+                    if (getLoadLocked() == Load.NORMAL) {
+                        // the backlog has drained, delayed tasks may run
+                        releasedTasks = takeDelayedTasks();
+                    }
+                    if ((task == null) && releasedTasks.isEmpty()) {
+                        mScheduled = false;
+                        mLanes.remove(mKey);
+                        return;
+                    }
+                }
+                executeAll(releasedTasks);
+                if (task == null) {
+                    // only released delayed tasks, which may have been queued on this lane
+                    continue;
+                }
+
+                try {
+                    task.run();
+
+                } catch (Exception e) {
+                    AlexaIotivityBridgeDemo.msgError("Error running task for " + mKey + " -- " + e.toString());
+                    e.printStackTrace();
+                }
+            }
+
+            // more tasks are waiting, go to the back of the pool queue
+            schedule(this);
+        }
+    }
+
+    /**
+     * A queued notification, marked dropped when it is coalesced or makes room for a newer one
+     */
+    static class Notification implements Runnable {
+
+        private final Lane mLane;
+        private final String mResourceUri;
+        private Runnable mTask;
+        private boolean mDropped;
+
+        Notification(Lane lane, String resourceUri, Runnable task) {
+            mLane = lane;
+            mResourceUri = resourceUri;
+            mTask = task;
+        }
+
+        @Override
+        public void run() {
+            mTask.run();
+        }
+    }
+
+    /**
+     * A low priority task waiting for the backlog to drain
+     */
+    static class DelayedTask {
+
+        private final String mKey;
+        private final Runnable mTask;
+
+        DelayedTask(String key, Runnable task) {
+            mKey = key;
+            mTask = task;
+        }
+    }
+
+    static class LaneThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "device-lane-" + mCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ *******************************************************************
+ *
+ * Copyright 2017 Intel Corporation.
+ *
+ *-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=
+ */
+
+
+package org.iotivity.base.examples;
+
+import org.iotivity.base.OcResource;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * DeviceRegistry
+ *
+ * DeviceRegistry keeps one entry per light with everything known about it: the OcResource handles
+ * of the light and its links, the model Light with its services, the published LightDevice and the
+ * time it was last seen. The entry is indexed by the light uri and by each link uri, so any resource
+ * is found with one lookup, and a light is removed together with its links in one step.
+ */
+public class DeviceRegistry {
+
+    private final Map<String, Entry> mEntryLookup = new ConcurrentHashMap<>(); // keyed by light and link uri
+
+    /**
+     * A linked resource of a light, its handle and the service it is modelled by.
+     */
+    static class LinkedResource {
+
+        final String mHref;
+        final OcResource mOcResource;
+        final Service mService;
+
+        LinkedResource(String href, OcResource ocResource, Service service) {
+            mHref = href;
+            mOcResource = ocResource;
+            mService = service;
+        }
+    }
+
+    /**
+     * A light and its linked resources.
+     */
+    public static class Entry {
+
+        private final String mUri;
+        private final Light mLight;
+        private volatile OcResource mOcResource;
+        // a light has a handful of links, copied on the rare change instead of kept in a map of its own
+        private volatile LinkedResource[] mLinks = new LinkedResource[0];
+        private volatile ConnectedThing.LightDevice mLightDevice;
+        private volatile long mLastSeenMillis;
+
+        Entry(String uri, Light light) {
+            mUri = uri;
+            mLight = light;
+        }
+
+        public String getUri() {
+            return mUri;
+        }
+
+        public Light getLight() {
+            return mLight;
+        }
+
+        public OcResource getOcResource() {
+            return mOcResource;
+        }
+
+        public void setOcResource(OcResource ocResource) {
+            mOcResource = ocResource;
+        }
+
+        public ConnectedThing.LightDevice getLightDevice() {
+            return mLightDevice;
+        }
+
+        public void setLightDevice(ConnectedThing.LightDevice lightDevice) {
+            mLightDevice = lightDevice;
+        }
+
+        public long getLastSeenMillis() {
+            return mLastSeenMillis;
+        }
+
+        public void setLastSeenMillis(long lastSeenMillis) {
+            mLastSeenMillis = lastSeenMillis;
+        }
+
+        /**
+         * @return the light or the service of a linked resource
+         */
+        public Resource getResource(String uri) {
+            if (mUri.equals(uri)) {
+                return mLight;
+            }
+            LinkedResource linkedResource = getLink(uri);
+            return (linkedResource != null) ? linkedResource.mService : null;
+        }
+
+        /**
+         * @return the handle of the light or of a linked resource
+         */
+        public OcResource getOcResource(String uri) {
+            if (mUri.equals(uri)) {
+                return mOcResource;
+            }
+            LinkedResource linkedResource = getLink(uri);
+            return (linkedResource != null) ? linkedResource.mOcResource : null;
+        }
+
+        private LinkedResource getLink(String href) {
+            for (LinkedResource linkedResource : mLinks) {
+                if (linkedResource.mHref.equals(href)) {
+                    return linkedResource;
+                }
+            }
+            return null;
+        }
+
+        public boolean hasLink(String href) {
+            return getLink(href) != null;
+        }
+
+        /**
+         * @return handles of the linked resources
+         */
+        public List<OcResource> getLinkResources() {
+            LinkedResource[] links = mLinks;
+            List<OcResource> linkResources = new ArrayList<>(links.length);
+            for (LinkedResource linkedResource : links) {
+                linkResources.add(linkedResource.mOcResource);
+            }
+            return linkResources;
+        }
+    }
+
+    /**
+     * @return the entry of the light a light or link uri belongs to
+     */
+    public Entry get(String uri) {
+        return (uri != null) ? mEntryLookup.get(uri) : null;
+    }
+
+    /**
+     * @return the light, or the service of a linked resource
+     */
+    public Resource getResource(String uri) {
+        Entry entry = get(uri);
+        return (entry != null) ? entry.getResource(uri) : null;
+    }
+
+    /**
+     * @return the handle of a light or of a linked resource
+     */
+    public OcResource getOcResource(String uri) {
+        Entry entry = get(uri);
+        return (entry != null) ? entry.getOcResource(uri) : null;
+    }
+
+    /**
+     * @return the entry of a light, not of one of its links
+     */
+    public Entry getLight(String lightUri) {
+        Entry entry = get(lightUri);
+        return ((entry != null) && entry.mUri.equals(lightUri)) ? entry : null;
+    }
+
+    public boolean containsLight(String lightUri) {
+        return getLight(lightUri) != null;
+    }
+
+    /**
+     * Adds a light, or returns the entry it already has
+     */
+    public synchronized Entry addLight(String lightUri, Light light) {
+        Entry entry = getLight(lightUri);
+        if (entry == null) {
+            entry = new Entry(lightUri, light);
+            mEntryLookup.put(lightUri, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Adds a linked resource to a light still in the registry
+     *
+     * @return false if the light has been removed, or the uri is already in use
+     */
+    public synchronized boolean addLink(Entry entry, String href, OcResource ocResource, Service service) {
+        if ((mEntryLookup.get(entry.mUri) != entry) || mEntryLookup.containsKey(href)) {
+            return false;
+        }
+        LinkedResource[] links = Arrays.copyOf(entry.mLinks, entry.mLinks.length + 1);
+        links[links.length - 1] = new LinkedResource(href, ocResource, service);
+        entry.mLinks = links;
+        mEntryLookup.put(href, entry);
+        return true;
+    }
+
+    /**
+     * Replaces the handle of a linked resource, for example when the light moved to another endpoint
+     *
+     * @return false if the light has been removed or has no such link
+     */
+    public synchronized boolean replaceLinkResource(Entry entry, String href, OcResource ocResource) {
+        if (mEntryLookup.get(entry.mUri) != entry) {
+            return false;
+        }
+        LinkedResource[] links = entry.mLinks.clone();
+        for (int i = 0; i < links.length; ++i) {
+            if (links[i].mHref.equals(href)) {
+                links[i] = new LinkedResource(href, ocResource, links[i].mService);
+                entry.mLinks = links;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes a light together with its linked resources
+     *
+     * @return the removed entry, or null if there was no such light
+     */
+    public synchronized Entry removeLight(String lightUri) {
+        Entry entry = getLight(lightUri);
+        if (entry == null) {
+            return null;
+        }
+        for (LinkedResource linkedResource : entry.mLinks) {
+            mEntryLookup.remove(linkedResource.mHref, entry);
+        }
+        mEntryLookup.remove(lightUri, entry);
+        return entry;
+    }
+
+    /**
+     * @return the entries of all lights
+     */
+    public List<Entry> getLights() {
+        List<Entry> lights = new ArrayList<>();
+        for (Map.Entry<String, Entry> entry : mEntryLookup.entrySet()) {
+            if (entry.getKey().equals(entry.getValue().mUri)) {
+                lights.add(entry.getValue());
+            }
+        }
+        return lights;
+    }
+
+    /**
+     * @return number of uris indexed, lights and links
+     */
+    public int getUriCount() {
+        return mEntryLookup.size();
+    }
+}
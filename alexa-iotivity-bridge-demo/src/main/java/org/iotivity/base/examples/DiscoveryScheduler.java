@@ -0,0 +1,128 @@
+/*
+ *******************************************************************
+ *
+ * Copyright 2017 Intel Corporation.
+ *
+ *-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=
+ */
+
+package org.iotivity.base.examples;
+
+/**
+ * DiscoveryScheduler
+ *
+ * DiscoveryScheduler decides when the next multicast discovery is sent. While the set of
+ * devices is stable the interval doubles up to a maximum, and when the set changes (a new
+ * uri, a stale purge or a failed observe) it drops back to a short burst interval for a few
+ * cycles so that further changes are picked up within seconds.
+ */
+public class DiscoveryScheduler {
+
+    public static final int DEFAULT_BURST_CYCLES = 3;
+
+    private final long mBurstIntervalMillis;
+    private final long mInitialIntervalMillis;
+    private final long mMaxIntervalMillis;
+    private final int mBurstCycles;
+
+    private long mIntervalMillis;
+    private long mNextDiscoveryMillis;
+    private int mBurstCyclesRemaining;
+    private long mChangeCount;
+    private boolean mStopped;
+
+    public DiscoveryScheduler(int burstIntervalSeconds, int initialIntervalSeconds, int maxIntervalSeconds) {
+        this(burstIntervalSeconds, initialIntervalSeconds, maxIntervalSeconds, DEFAULT_BURST_CYCLES);
+    }
+
+    public DiscoveryScheduler(int burstIntervalSeconds, int initialIntervalSeconds, int maxIntervalSeconds, int burstCycles) {
+        mBurstIntervalMillis = Math.max(1, burstIntervalSeconds) * 1000L;
+        mMaxIntervalMillis = Math.max(mBurstIntervalMillis, maxIntervalSeconds * 1000L);
+        mInitialIntervalMillis = Math.min(mMaxIntervalMillis, Math.max(mBurstIntervalMillis, initialIntervalSeconds * 1000L));
+        mBurstCycles = Math.max(0, burstCycles);
+
+        mIntervalMillis = mInitialIntervalMillis;
+    }
+
+    /**
+     * Called whenever the set of known devices has changed, brings the next discovery forward.
+     */
+    public synchronized void deviceSetChanged() {
+        ++mChangeCount;
+        mIntervalMillis = mBurstIntervalMillis;
+        mBurstCyclesRemaining = mBurstCycles;
+
+        long burstDiscoveryMillis = System.currentTimeMillis() + mBurstIntervalMillis;
+        if ((mNextDiscoveryMillis == 0) || (burstDiscoveryMillis < mNextDiscoveryMillis)) {
+            mNextDiscoveryMillis = burstDiscoveryMillis;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Blocks until the next discovery is due, then works out the interval for the one after.
+     */
+    public synchronized void awaitNextDiscovery() throws InterruptedException {
+        mNextDiscoveryMillis = System.currentTimeMillis() + mIntervalMillis;
+
+        long remainingMillis;
+        while ((!mStopped) && ((remainingMillis = mNextDiscoveryMillis - System.currentTimeMillis()) > 0)) {
+            wait(remainingMillis);
+        }
+        mNextDiscoveryMillis = 0;
+
+        if (mBurstCyclesRemaining > 0) {
+            --mBurstCyclesRemaining;
+        } else {
+            // nothing changed recently, back off
+            mIntervalMillis = Math.min(mMaxIntervalMillis, Math.max(mInitialIntervalMillis, mIntervalMillis * 2));
+        }
+    }
+
+    /**
+     * Ends discovery, a pending {@link #awaitNextDiscovery()} returns straight away
+     */
+    public synchronized void stop() {
+        mStopped = true;
+        notifyAll();
+    }
+
+    public synchronized boolean isStopped() {
+        return mStopped;
+    }
+
+    /**
+     * @return true while the device set has changed recently and discovery runs at the burst interval
+     */
+    public synchronized boolean isInBurst() {
+        return (mBurstCyclesRemaining > 0) || (mIntervalMillis == mBurstIntervalMillis);
+    }
+
+    public synchronized long getIntervalMillis() {
+        return mIntervalMillis;
+    }
+
+    public synchronized long getChangeCount() {
+        return mChangeCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "[burst: " + mBurstIntervalMillis / 1000 + "s, initial: " + mInitialIntervalMillis / 1000
+                + "s, max: " + mMaxIntervalMillis / 1000 + "s, current: " + mIntervalMillis / 1000 + "s]";
+    }
+}
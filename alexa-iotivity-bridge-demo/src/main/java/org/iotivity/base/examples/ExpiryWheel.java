@@ -0,0 +1,235 @@
+/*
+ *******************************************************************
+ *
+ * Copyright 2017 Intel Corporation.
+ *
+ *-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=
+ */
+
+
+package org.iotivity.base.examples;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * ExpiryWheel
+ *
+ * ExpiryWheel is a hashed timing wheel which expires keys that have not been touched for a time to
+ * live. Touching a key only moves its deadline; the key moves to a later slot when its old slot comes
+ * round, so refreshes cost O(1) and each tick only looks at the keys filed under it. Keys expire at
+ * most one tick after their deadline. While the wheel is paused nothing expires, and the deadlines are
+ * pushed back by the pause when it ends.
+ */
+public class ExpiryWheel {
+
+    private final Map<String, Entry> mEntries = new HashMap<>();
+    private List<Set<String>> mSlots;
+    private long mTickMillis;
+    private long mTtlMillis;
+    private long mLastTick = -1;
+    private long mPausedMillis = -1;
+    private long mExpiredCount;
+
+    public ExpiryWheel(long ttlMillis, long tickMillis) {
+        mTtlMillis = ttlMillis;
+        setTickMillis(tickMillis);
+    }
+
+    /**
+     * Starts or restarts the time to live of a key
+     */
+    public synchronized void touch(String key, long now) {
+        long deadline = now + mTtlMillis;
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            entry = new Entry(deadline);
+            mEntries.put(key, entry);
+            schedule(key, entry);
+        } else {
+            // picked up when its current slot comes round
+            entry.mDeadline = deadline;
+        }
+    }
+
+    /**
+     * Restarts the time to live of a key which is already in the wheel
+     *
+     * @return false if the key is not in the wheel
+     */
+    public synchronized boolean refresh(String key, long now) {
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            return false;
+        }
+        entry.mDeadline = now + mTtlMillis;
+        return true;
+    }
+
+    public synchronized boolean remove(String key) {
+        Entry entry = mEntries.remove(key);
+        if (entry == null) {
+            return false;
+        }
+        mSlots.get(slotIndex(entry.mTick)).remove(key);
+        return true;
+    }
+
+    public synchronized boolean contains(String key) {
+        return mEntries.containsKey(key);
+    }
+
+    /**
+     * Removes and returns the keys whose deadline has passed, only visiting the slots of the ticks since the last call
+     */
+    public synchronized List<String> expire(long now) {
+        List<String> expired = new ArrayList<>();
+        if (mPausedMillis >= 0) {
+            return expired;
+        }
+        long nowTick = now / mTickMillis;
+        if (mLastTick < 0) {
+            mLastTick = nowTick - 1;
+        }
+
+        // after a long pause every slot is visited once
+        long firstTick = Math.max(mLastTick + 1, nowTick - mSlots.size() + 1);
+        mLastTick = nowTick;
+        for (long tick = firstTick; tick <= nowTick; ++tick) {
+            Set<String> slot = mSlots.get(slotIndex(tick));
+            if (slot.isEmpty()) {
+                continue;
+            }
+            for (String key : new ArrayList<>(slot)) {
+                Entry entry = mEntries.get(key);
+                if (entry.mTick > nowTick) {
+                    // filed for a later round of the wheel
+                    continue;
+                }
+                slot.remove(key);
+                if (entry.mDeadline <= now) {
+                    mEntries.remove(key);
+                    expired.add(key);
+                } else {
+                    // touched since it was filed
+                    schedule(key, entry);
+                }
+            }
+        }
+
+        mExpiredCount += expired.size();
+        return expired;
+    }
+
+    /**
+     * Stops the deadlines from running down until resume
+     *
+     * @return false if the wheel was already paused
+     */
+    public synchronized boolean pause(long now) {
+        if (mPausedMillis >= 0) {
+            return false;
+        }
+        mPausedMillis = now;
+        return true;
+    }
+
+    /**
+     * Pushes every deadline back by the time spent paused, the keys move when their old slot comes round
+     *
+     * @return false if the wheel was not paused
+     */
+    public synchronized boolean resume(long now) {
+        if (mPausedMillis < 0) {
+            return false;
+        }
+        long pausedMillis = Math.max(0, now - mPausedMillis);
+        mPausedMillis = -1;
+        for (Entry entry : mEntries.values()) {
+            entry.mDeadline += pausedMillis;
+        }
+        return true;
+    }
+
+    public synchronized boolean isPaused() {
+        return mPausedMillis >= 0;
+    }
+
+    private void schedule(String key, Entry entry) {
+        entry.mTick = Math.max(mLastTick + 1, (entry.mDeadline + mTickMillis - 1) / mTickMillis);
+        mSlots.get(slotIndex(entry.mTick)).add(key);
+    }
+
+    private int slotIndex(long tick) {
+        return (int) (tick % mSlots.size());
+    }
+
+    public synchronized long getTtlMillis() {
+        return mTtlMillis;
+    }
+
+    /**
+     * Changes the time to live for keys touched from now on, and resizes the wheel to match
+     */
+    public synchronized void setTtlMillis(long ttlMillis) {
+        mTtlMillis = ttlMillis;
+        setTickMillis(mTickMillis);
+    }
+
+    public synchronized long getTickMillis() {
+        return mTickMillis;
+    }
+
+    /**
+     * Changes the expiry precision, the wheel has enough slots to cover the time to live in one round
+     */
+    public synchronized void setTickMillis(long tickMillis) {
+        if ((mLastTick >= 0) && (mTickMillis > 0)) {
+            mLastTick = mLastTick * mTickMillis / Math.max(1, tickMillis);
+        }
+        mTickMillis = Math.max(1, tickMillis);
+        int slotCount = (int) Math.min(4096, mTtlMillis / mTickMillis + 1);
+        mSlots = new ArrayList<>(slotCount);
+        for (int i = 0; i < slotCount; ++i) {
+            mSlots.add(new HashSet<String>());
+        }
+        for (Map.Entry<String, Entry> entry : mEntries.entrySet()) {
+            schedule(entry.getKey(), entry.getValue());
+        }
+    }
+
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    public synchronized long getExpiredCount() {
+        return mExpiredCount;
+    }
+
+    static class Entry {
+        private long mDeadline;
+        private long mTick;
+
+        Entry(long deadline) {
+            mDeadline = deadline;
+        }
+    }
+}
@@ -0,0 +1,339 @@
+/*
+ *******************************************************************
+ *
+ * Copyright 2017 Intel Corporation.
+ *
+ *-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=
+ */
+
+
+package org.iotivity.base.examples;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.BiConsumer;
+
+/**
+ * GroupCommand
+ *
+ * GroupCommand sends one command to many lights, with at most a given number of lights waiting for an
+ * answer at a time, and completes once every light has answered or failed, or the group timeout has
+ * passed. The result has the latency percentiles of the lights which answered and names the lights
+ * still waiting for an answer when the group timed out (the stragglers).
+ */
+public class GroupCommand {
+
+    public static final int DEFAULT_CONCURRENCY = 32;
+    public static final long DEFAULT_TIMEOUT_MILLIS = 30 * 1000;
+
+    // group timeouts of all groups, daemon so that it does not keep the bridge running
+    private static final Timer timeoutTimer = new Timer("group-command", true);
+
+    /**
+     * The command sent to each light of the group
+     */
+    public interface DeviceCommand {
+        CompletableFuture<IotivityClient.CommandResult> send(String uri);
+    }
+
+    private final String mName;
+    private final List<String> mUris;
+    private final DeviceCommand mDeviceCommand;
+    private final int mConcurrency;
+    private final long mTimeoutMillis;
+    private final CompletableFuture<Result> mFuture = new CompletableFuture<>();
+
+    // guarded by this
+    private final Map<String, Long> mInFlight = new LinkedHashMap<>(); // send time keyed by uri
+    private final Map<String, Throwable> mFailures = new LinkedHashMap<>();
+    private final long[] mLatencies;
+    private int mAnsweredCount;
+    private int mNextIndex;
+    private boolean mSending;
+    private long mStartMillis;
+    private TimerTask mTimeoutTask;
+    private Result mResult;
+
+    /**
+     * @param name          name of the group command, for the log
+     * @param uris          the lights to send the command to, each light once
+     * @param deviceCommand sends the command to one light
+     * @param concurrency   largest number of lights waiting for an answer at a time
+     * @param timeoutMillis the group completes after this long, whether all lights answered or not
+     */
+    public GroupCommand(String name, Collection<String> uris, DeviceCommand deviceCommand, int concurrency, long timeoutMillis) {
+        mName = name;
+        mUris = new ArrayList<>(new LinkedHashSet<>(uris));
+        mDeviceCommand = deviceCommand;
+        mConcurrency = Math.max(1, concurrency);
+        mTimeoutMillis = Math.max(1, timeoutMillis);
+        mLatencies = new long[mUris.size()];
+    }
+
+    /**
+     * Starts sending the command to the lights
+     *
+     * @return completes with the result of the group, never exceptionally
+     */
+    public CompletableFuture<Result> start() {
+        synchronized (this) {
+            mStartMillis = System.currentTimeMillis();
+            if (mUris.isEmpty()) {
+                mResult = createResult(false);
+            } else {
+                mTimeoutTask = new TimeoutTask();
+                timeoutTimer.schedule(mTimeoutTask, mTimeoutMillis);
+            }
+        }
+        if (!completeIfFinished()) {
+            sendMore();
+        }
+        return mFuture;
+    }
+
+    /**
+     * Stops the group, for example when a newer group command replaces it. Lights not sent the command yet
+     * are skipped, lights waiting for an answer are reported as stragglers.
+     */
+    public void cancel() {
+        synchronized (this) {
+            if (mResult == null) {
+                mResult = createResult(true);
+            }
+        }
+        completeIfFinished();
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Local method to send the command to further lights while fewer than the concurrency limit are waiting
+     * for an answer. Only one thread sends at a time, answers arriving meanwhile are picked up by its loop.
+     */
+    private void sendMore() {
+        synchronized (this) {
+            if (mSending) {
+                return;
+            }
+            mSending = true;
+        }
+        while (true) {
+            final String uri;
+            final long sentMillis;
+            synchronized (this) {
+                if ((mResult != null) || (mNextIndex >= mUris.size()) || (mInFlight.size() >= mConcurrency)) {
+                    mSending = false;
+                    return;
+                }
+                uri = mUris.get(mNextIndex++);
+                sentMillis = System.currentTimeMillis();
+                mInFlight.put(uri, sentMillis);
+            }
+
+            CompletableFuture<IotivityClient.CommandResult> command;
+            try {
+                command = mDeviceCommand.send(uri);
+
+            } catch (RuntimeException e) {
+                command = new CompletableFuture<>();
+                command.completeExceptionally(e);
+            }
+            command.whenComplete(new BiConsumer<IotivityClient.CommandResult, Throwable>() {
+                @Override
+                public void accept(IotivityClient.CommandResult commandResult, Throwable throwable) {
+                    deviceDone(uri, sentMillis, (throwable instanceof CompletionException) ? throwable.getCause() : throwable);
+                }
+            });
+        }
+    }
+
+    /**
+     * Local method to record the answer (or failure) of one light
+     */
+    private void deviceDone(String uri, long sentMillis, Throwable throwable) {
+        long latencyMillis = System.currentTimeMillis() - sentMillis;
+        synchronized (this) {
+            if (mResult != null) {
+                if (mResult.getStragglers().contains(uri)) {
+                    AlexaIotivityBridgeDemo.msg("Group " + mName + ": straggler " + uri + " answered after " + latencyMillis + " ms"
+                            + ((throwable != null) ? " -- " + throwable.toString() : ""));
+                }
+                return;
+            }
+            mInFlight.remove(uri);
+            if (throwable != null) {
+                mFailures.put(uri, throwable);
+            } else {
+                mLatencies[mAnsweredCount++] = latencyMillis;
+            }
+            if ((mNextIndex >= mUris.size()) && (mInFlight.isEmpty())) {
+                mResult = createResult(false);
+            }
+        }
+        if (!completeIfFinished()) {
+            sendMore();
+        }
+    }
+
+    /**
+     * @return true if the group has its result, which is then handed to the future
+     */
+    private boolean completeIfFinished() {
+        Result result;
+        synchronized (this) {
+            result = mResult;
+            if ((result != null) && (mTimeoutTask != null)) {
+                mTimeoutTask.cancel();
+            }
+        }
+        if (result != null) {
+            mFuture.complete(result);
+            return true;
+        }
+        return false;
+    }
+
+    private Result createResult(boolean cancelled) {
+        long[] latencies = Arrays.copyOf(mLatencies, mAnsweredCount);
+        Arrays.sort(latencies);
+        return new Result(mName, mUris.size(), latencies, new LinkedHashMap<>(mFailures), new ArrayList<>(mInFlight.keySet()),
+                mUris.size() - mNextIndex, System.currentTimeMillis() - mStartMillis, cancelled);
+    }
+
+    /**
+     * Timer task which completes the group when the group timeout has passed
+     */
+    private class TimeoutTask extends TimerTask {
+        @Override
+        public void run() {
+            synchronized (GroupCommand.this) {
+                if (mResult == null) {
+                    mResult = createResult(false);
+                }
+            }
+            completeIfFinished();
+        }
+    }
+
+    /**
+     * The outcome of a group command
+     */
+    public static class Result {
+
+        private final String mName;
+        private final int mDeviceCount;
+        private final long[] mLatencies; // sorted
+        private final Map<String, Throwable> mFailures;
+        private final List<String> mStragglers;
+        private final int mSkippedCount;
+        private final long mDurationMillis;
+        private final boolean mCancelled;
+
+        Result(String name, int deviceCount, long[] latencies, Map<String, Throwable> failures, List<String> stragglers,
+               int skippedCount, long durationMillis, boolean cancelled) {
+            mName = name;
+            mDeviceCount = deviceCount;
+            mLatencies = latencies;
+            mFailures = Collections.unmodifiableMap(failures);
+            mStragglers = Collections.unmodifiableList(stragglers);
+            mSkippedCount = skippedCount;
+            mDurationMillis = durationMillis;
+            mCancelled = cancelled;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public int getDeviceCount() {
+            return mDeviceCount;
+        }
+
+        public int getAnsweredCount() {
+            return mLatencies.length;
+        }
+
+        /**
+         * @return the lights whose command failed, with the failure
+         */
+        public Map<String, Throwable> getFailures() {
+            return mFailures;
+        }
+
+        /**
+         * @return the lights still waiting for an answer when the group timed out or was cancelled
+         */
+        public List<String> getStragglers() {
+            return mStragglers;
+        }
+
+        /**
+         * @return number of lights never sent the command because the group timed out or was cancelled first
+         */
+        public int getSkippedCount() {
+            return mSkippedCount;
+        }
+
+        public long getDurationMillis() {
+            return mDurationMillis;
+        }
+
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+
+        /**
+         * @return true if every light answered the command
+         */
+        public boolean isConverged() {
+            return mLatencies.length == mDeviceCount;
+        }
+
+        /**
+         * @param percentile 0 to 100
+         * @return latency (nearest rank) of the lights which answered, or -1 if none did
+         */
+        public long getLatencyPercentile(double percentile) {
+            if (mLatencies.length == 0) {
+                return -1;
+            }
+            int rank = (int) Math.ceil(Math.max(0, Math.min(100, percentile)) / 100 * mLatencies.length);
+            return mLatencies[Math.max(0, rank - 1)];
+        }
+
+        @Override
+        public String toString() {
+            return mName + ": " + getAnsweredCount() + "/" + mDeviceCount + " lights answered in " + mDurationMillis + " ms"
+                    + ", p50: " + getLatencyPercentile(50) + " ms, p95: " + getLatencyPercentile(95)
+                    + " ms, p99: " + getLatencyPercentile(99) + " ms, max: " + getLatencyPercentile(100) + " ms"
+                    + ", failed: " + mFailures.size() + ", stragglers: " + mStragglers.size() + ", skipped: " + mSkippedCount
+                    + (mCancelled ? " (cancelled)" : "");
+        }
+    }
+}
@@ -28,19 +28,38 @@ import org.iotivity.base.OcConnectivityType;
 import org.iotivity.base.OcException;
 import org.iotivity.base.OcHeaderOption;
 import org.iotivity.base.OcPlatform;
+import org.iotivity.base.OcPresenceStatus;
 import org.iotivity.base.OcRepresentation;
 import org.iotivity.base.OcResource;
 import org.iotivity.base.examples.ConnectedThing.LightDevice;
 
+import com.amazonaws.services.iot.client.AWSIotException;
+
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Comparator;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
 /**
  * IotivityClient
@@ -55,18 +74,130 @@ public class IotivityClient implements
         OcResource.OnPostListener,
         OcResource.OnObserveListener {
 
-    private final Map<String, OcResource> mIotivityResourceLookup = new ConcurrentHashMap<>();
-    private final Map<String, Resource> mResourceLookup = new ConcurrentHashMap<>();
-    private final Map<String, ConnectedThing.LightDevice> mConnectedThingLookup = new ConcurrentHashMap<>();
-    private final Map<String, Long> mStaleResourceUriLookup = new ConcurrentHashMap<>();
-    private final Comparator<ConnectedThing.LightDevice> nameComparator = new DeviceNameComparator();
+    private final DeviceRegistry mDeviceRegistry = new DeviceRegistry();
+    private final ExpiryWheel mStaleExpiryWheel = new ExpiryWheel(30 * 1000, 1000); // keyed by light uri
+    private final Set<String> mObservedResourceUris = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final Map<String, PendingLink> mPendingLinkLookup = new ConcurrentHashMap<>(); // keyed by lower case href
+    private final Set<String> mPendingLinkTypes = new HashSet<>();
+    private final Map<String, Long> mHostLatencyLookup = new ConcurrentHashMap<>();
+    private final Map<String, EndpointLatency> mEndpointLatencyLookup = new ConcurrentHashMap<>(); // keyed by host
+    private final Set<String> mRestoredUris = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    // Lights whose handle was built from the device cache, until discovery hands out the real one
+    private final Set<String> mRestoredHandleUris = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final Map<String, String> mRestoredServerIdLookup = new ConcurrentHashMap<>(); // keyed by light uri
+    private final Map<String, DeviceInfo> mDeviceInfoLookup = new ConcurrentHashMap<>(); // keyed by host
+    private final Map<String, DeviceInfoRequest> mDeviceInfoRequestLookup = new HashMap<>(); // keyed by host
+    private final Map<String, ObserveHealth> mObserveHealthLookup = new ConcurrentHashMap<>(); // keyed by light uri
+    private final Map<String, Long> mNotificationDeadlineLookup = new ConcurrentHashMap<>(); // keyed by resource uri
+    private final Set<String> mWorkflowUris = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final LightDeviceIndex mLightDeviceIndex = new LightDeviceIndex();
 
     private ConnectedThing mConnectedThing;
+    private DiscoveryScheduler mDiscoveryScheduler;
+    private PresenceSource mPresenceSource;
+    private DeviceCacheFile mDeviceCacheFile;
+    private volatile boolean mDeviceCacheDirty;
+    private volatile long mMulticastRequestMillis;
+
+    // When set, a new light is set up by a sequential workflow of its own instead of chained callbacks
+    private ExecutorService mWorkflowExecutor;
+    private long mWorkflowStepTimeoutMillis = 5 * 1000;
+    private final AtomicLong mDuplicateEndpointCount = new AtomicLong();
+    private final AtomicLong mEndpointSwitchCount = new AtomicLong();
+    private final AtomicBoolean mPublishRequested = new AtomicBoolean();
+    private final AtomicBoolean mPublishing = new AtomicBoolean();
+    private final AtomicLong mObserveDuplicateCount = new AtomicLong();
+    private final AtomicLong mObserveOutOfOrderCount = new AtomicLong();
+    private long mLoggedObserveDiscardCount;
+    private long mLoggedNotificationDiscardCount;
+    private final AtomicLong mDelayedDiscoveryCount = new AtomicLong();
+    // Writes are correlated with their answers through a listener per request
+    private final Map<Long, WriteListener> mPendingWriteLookup = new ConcurrentHashMap<>(); // keyed by write id
+    private final Map<String, Integer> mPendingWriteCountLookup = new HashMap<>(); // guarded by itself, keyed by resource uri
+    private final AtomicLong mNextWriteId = new AtomicLong();
+    private final AtomicLong mTimedOutWriteCount = new AtomicLong();
+    private volatile long mCommandTimeoutMillis = 5 * 1000;
+    private volatile boolean mStopping;
+    private long mLoggedSheddingCount;
+    // State commands for a light arriving within this window are collapsed into the latest one, and
+    // a light gets no further writes while an earlier one is still unanswered
+    private volatile long mCommandWindowMillis = 50;
+    private final Map<String, CommandBuffer> mCommandBufferLookup = new ConcurrentHashMap<>(); // keyed by light uri
+    private final AtomicInteger mBufferedCommandCount = new AtomicInteger();
+    private final AtomicLong mCoalescedCommandCount = new AtomicLong();
+    private long mLoggedCoalescedCommandCount;
+    // When set, switch and brightness of a linked light are posted in one request to the light collection
+    // through the batch interface, if the light advertises it and has not refused a batch write before
+    private volatile boolean mBatchWrites;
+    private final Set<String> mBatchRefusedUris = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final AtomicLong mBatchWriteCount = new AtomicLong();
+    // A write of the value a resource already has is skipped, unless the value was not confirmed by the device
+    // (written since, or restored from the cache) or a write to the resource is pending
+    private volatile boolean mSuppressNoOpWrites = true;
+    private final Set<String> mUnconfirmedUris = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final AtomicLong mSuppressedWriteCount = new AtomicLong();
+    private long mLoggedSuppressedWriteCount;
+
+    /**
+     * How to choose between the endpoints (IPv4, IPv6, several interfaces) of a light which is
+     * found more than once. Only the chosen endpoint is observed and used to send commands.
+     */
+    public enum EndpointPolicy {
+        FIRST,          // keep the endpoint found first
+        LOWEST_RTT,     // prefer the endpoint answering multicast discovery fastest
+        IPV4,           // prefer IPv4 endpoints
+        IPV6            // prefer IPv6 endpoints
+    }
+
+    private EndpointPolicy mEndpointPolicy = EndpointPolicy.LOWEST_RTT;
+
+    private TimerTask mStaleExpiryTask;
+    // Device info ("/oic/d") of a host is queried again after this long
+    private long mDeviceInfoTtlMillis = 5 * 60 * 1000;
+    // An unanswered device info request is sent again after this long
+    private static final long DEVICE_INFO_RETRY_MILLIS = 10 * 1000;
+
+    // When incremental, resources already being observed keep their observation across discovery cycles
+    private boolean mIncrementalDiscovery = true;
+
+    // Link hrefs requested within this window are resolved with a single query per resource type
+    private static final long LINK_RESOLUTION_WINDOW_MILLIS = 250;
+    // An unresolved link is queried again if still not found after this long
+    private static final long LINK_RESOLUTION_RETRY_MILLIS = 10 * 1000;
+    // With LOWEST_RTT, an endpoint must be at least this much faster before the light is switched to it
+    private static final long ENDPOINT_SWITCH_MARGIN_MILLIS = 10;
+    // Half the observe sequence number space, a newer notification is less than this far ahead (RFC 7641)
+    private static final int OBSERVE_SEQUENCE_HALF_RANGE = (OcResource.OnObserveListener.MAX_SEQUENCE_NUMBER + 1) / 2;
+    // After this long without a notification any sequence number is accepted again (RFC 7641)
+    private static final long OBSERVE_SEQUENCE_FRESHNESS_MILLIS = 128 * 1000;
+    // An observed resource which does not notify within this long of a write that changed it is assumed dead
+    private static final long OBSERVE_NOTIFICATION_TIMEOUT_MILLIS = 5 * 1000;
+    // A light whose observation died is observed again after this long, doubling on each failure
+    private static final long OBSERVE_RETRY_MILLIS = 60 * 1000;
+    private static final long OBSERVE_MAX_RETRY_MILLIS = 15 * 60 * 1000;
+    // Kinds of low priority tasks, a delayed task only gives way to a later one of the same kind
+    private static final String LOW_PRIORITY_REDISCOVERY = "rediscovery";
+    private static final String LOW_PRIORITY_POLL = "poll";
+
+    // Lights which can not be observed are polled this often, with at most this many polls per second
+    private long mPollIntervalMillis = 5 * 1000;
+    private int mMaxPollsPerSecond = 10;
+
+    private final Timer mTimer = new Timer();
+
+    // Callbacks are handled in order per light, lights are handled in parallel. The state of a light
+    // is only changed on its lane, so commands, timers and presence events are queued there as well.
+    private final DeviceExecutor mDeviceExecutor = new DeviceExecutor(Runtime.getRuntime().availableProcessors());
 
     public IotivityClient() {
         // Start running a task to collect stale resources (runs every 10 seconds)
-        Timer timer = new Timer();
-        timer.schedule(new StaleResourcePurgeTask(), 10*1000, 10*1000);
+        mTimer.schedule(new StaleResourcePurgeTask(), 10*1000, 10*1000);
+        // Start expiring lights which have not been seen for the stale timeout (runs every expiry tick)
+        scheduleStaleExpiry();
+        // Start running a task to poll lights which can not be observed (runs every second)
+        mTimer.schedule(new ObserveHealthTask(), 1000, 1000);
+        // Start failing writes which are not answered in time (runs every second)
+        mTimer.schedule(new WriteTimeoutTask(), 1000, 1000);
     }
 
     /**
@@ -75,12 +206,31 @@ public class IotivityClient implements
      * @param ocResource found resource
      */
     @Override
-    public synchronized void onResourceFound(OcResource ocResource) {
+    public void onResourceFound(final OcResource ocResource) {
         if (null == ocResource) {
             AlexaIotivityBridgeDemo.msgError("Found resource is invalid");
             return;
         }
+        if (mStopping) {
+            return;
+        }
 
+        String resourceUri = ocResource.getUri();
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                handleResourceFound(ocResource);
+            }
+        };
+        if (mDeviceRegistry.get(resourceUri) != null) {
+            // rediscovery of a known resource gives way to notifications when they back up
+            mDeviceExecutor.executeLowPriority(getLaneKey(resourceUri), LOW_PRIORITY_REDISCOVERY, resourceUri, task);
+        } else {
+            mDeviceExecutor.execute(getLaneKey(resourceUri), task);
+        }
+    }
+
+    private void handleResourceFound(OcResource ocResource) {
         // Get the resource uri
         String resourceUri = ocResource.getUri();
         // Get the resource host address
@@ -92,7 +242,63 @@ public class IotivityClient implements
         if (resourceUri.startsWith(Light.UPNP_OIC_URI_PREFIX_LIGHT)
                 || resourceUri.startsWith(Light.OCF_OIC_URI_PREFIX_LIGHT)
                 || resourceUri.startsWith(Light.OIC_URI_PREFIX_LIGHT)) {
-            if (!mResourceLookup.containsKey(resourceUri)) {
+            DeviceRegistry.Entry entry = mDeviceRegistry.getLight(resourceUri);
+            OcResource knownResource = (entry != null) ? entry.getOcResource() : null;
+            if ((knownResource != null) && mRestoredHandleUris.contains(resourceUri)
+                    && (!isSameHost(knownResource.getHost(), hostAddress))) {
+                // the cached address is either stale or another endpoint of the device, the light moves over
+                // unless the cached endpoint is preferred and may still answer
+                if (!isSameRestoredDevice(resourceUri, ocResource)) {
+                    AlexaIotivityBridgeDemo.msgError("Uri " + resourceUri + " of device " + ocResource.getServerId()
+                            + " ignored, cached light already found on device " + mRestoredServerIdLookup.get(resourceUri));
+                    return;
+                }
+                if (isPreferredEndpoint(ocResource, knownResource)
+                        || (mRestoredUris.contains(resourceUri) && (!isPreferredEndpoint(knownResource, ocResource)))) {
+                    AlexaIotivityBridgeDemo.msg("Host of cached light " + resourceUri + " changed to " + hostAddress);
+                    refreshKnownLight(resourceUri);
+                    switchEndpoint(resourceUri, knownResource, ocResource);
+                }
+                return;
+            }
+
+            if ((knownResource != null) && mRestoredHandleUris.contains(resourceUri)
+                    && isSameHost(knownResource.getHost(), hostAddress)) {
+                // the cache only has the address, the discovered handle also has the connectivity, interfaces and device id
+                AlexaIotivityBridgeDemo.msg("Cached light " + resourceUri + " found on " + hostAddress);
+                refreshKnownLight(resourceUri);
+                replaceResource(resourceUri, knownResource, ocResource);
+                return;
+            }
+
+            if ((knownResource != null) && (!isSameHost(knownResource.getHost(), hostAddress))) {
+                // The light is already known through another endpoint
+                if (!isSameDevice(knownResource, ocResource)) {
+                    AlexaIotivityBridgeDemo.msgError("Uri " + resourceUri + " of device " + ocResource.getServerId()
+                            + " ignored, already in use by device " + knownResource.getServerId());
+                    return;
+                }
+                mDuplicateEndpointCount.incrementAndGet();
+                refreshKnownLight(resourceUri);
+                if (((!mObservedResourceUris.contains(resourceUri)) && (!mWorkflowUris.contains(resourceUri)))
+                        || isPreferredEndpoint(ocResource, knownResource)) {
+                    switchEndpoint(resourceUri, knownResource, ocResource);
+                }
+                return;
+            }
+
+            if (mIncrementalDiscovery && (entry != null)
+                    && (mObservedResourceUris.contains(resourceUri) || isPolled(resourceUri))) {
+                // Already observed, just note that it is still around
+                refreshKnownLight(resourceUri);
+                if (entry.getLightDevice() == null) {
+                    // links not resolved yet, try again
+                    getResourceRepresentation(ocResource);
+                }
+                return;
+            }
+
+            if (entry == null) {
 
                 AlexaIotivityBridgeDemo.msg("URI of the new light resource: " + resourceUri);
 //                AlexaIotivityBridgeDemo.msg("Host address of the new light resource: " + hostAddress);
@@ -100,7 +306,15 @@ public class IotivityClient implements
                 Light light = new Light();
                 light.setUri(resourceUri);
 
-                mResourceLookup.put(resourceUri, light);
+                entry = mDeviceRegistry.addLight(resourceUri, light);
+                notifyDeviceSetChanged();
+            }
+
+            if (mWorkflowExecutor != null) {
+                // the workflow gets, resolves, names and observes the light
+                entry.setOcResource(ocResource);
+                startLightWorkflow(ocResource);
+                return;
             }
 
             // Call a local method which will internally invoke "observe" API on the found resource
@@ -109,17 +323,10 @@ public class IotivityClient implements
             // For OCF devices, the name is the 'n' property of the device
             if (resourceUri.startsWith(Light.OCF_OIC_URI_PREFIX_LIGHT)
                     || resourceUri.startsWith(Light.OIC_URI_PREFIX_LIGHT)) {
-                Light light = (Light) mResourceLookup.get(resourceUri);
-                OcPlatform.OnDeviceFoundListener deviceFoundListener = new DeviceFoundListener(light);
-                try {
-                    OcPlatform.getDeviceInfo(hostAddress, OcPlatform.WELL_KNOWN_DEVICE_QUERY,
-                            EnumSet.of(OcConnectivityType.CT_DEFAULT), deviceFoundListener);
-                } catch (OcException e) {
-                    AlexaIotivityBridgeDemo.msgError(e.toString());
-                }
+                requestDeviceName(hostAddress, entry.getLight());
             }
 
-            mIotivityResourceLookup.put(resourceUri, ocResource);
+            entry.setOcResource(ocResource);
             tracked = true;
 
         } else {
@@ -135,7 +342,7 @@ public class IotivityClient implements
     }
 
     @Override
-    public synchronized void onFindResourceFailed(Throwable throwable, String uri) {
+    public void onFindResourceFailed(Throwable throwable, String uri) {
         if (throwable instanceof OcException) {
             OcException ocEx = (OcException) throwable;
             AlexaIotivityBridgeDemo.msgError(ocEx.toString());
@@ -148,89 +355,151 @@ public class IotivityClient implements
     }
 
     /**
-     * Resource found listener specifically for links.
+     * A link href waiting to be resolved, with the uri of the device it belongs to.
      */
-    class ResourceFoundListener implements OcPlatform.OnResourceFoundListener {
+    static class PendingLink {
 
-        private String mParentUri;
-        private String mHref; // expected link uri
+        final String mParentUri;
+        final long mRequestedMillis;
 
-        ResourceFoundListener(String resourceUri, String href) {
-            mParentUri = resourceUri;
-            mHref = href;
+        PendingLink(String parentUri, long requestedMillis) {
+            mParentUri = parentUri;
+            mRequestedMillis = requestedMillis;
         }
+    }
 
-        public synchronized void onResourceFound(OcResource ocResource) {
-            if (null == ocResource) {
-                AlexaIotivityBridgeDemo.msgError("Found resource is invalid");
-                return;
+    /**
+     * Local method to queue a link for resolution, links of the same resource type
+     * requested within a short window share a single "findResource" request
+     *
+     * @param parentUri uri of the device owning the link
+     * @param href      expected link uri
+     * @param rt        resource type of the link
+     */
+    private void requestLinkResolution(String parentUri, String href, String rt) {
+        long now = System.currentTimeMillis();
+        PendingLink pendingLink = mPendingLinkLookup.get(href.toLowerCase());
+        if ((pendingLink != null) && (now - pendingLink.mRequestedMillis < LINK_RESOLUTION_RETRY_MILLIS)) {
+            // already asked for
+            return;
+        }
+        mPendingLinkLookup.put(href.toLowerCase(), new PendingLink(parentUri, now));
+
+        synchronized (mPendingLinkTypes) {
+            if (mPendingLinkTypes.isEmpty()) {
+                mTimer.schedule(new LinkResolutionTask(), LINK_RESOLUTION_WINDOW_MILLIS);
             }
+            mPendingLinkTypes.add(rt);
+        }
+    }
 
-            String resourceUri = ocResource.getUri();
+    /**
+     * Sends one "findResource" request for each resource type queued since the last run.
+     */
+    class LinkResolutionTask extends TimerTask {
+        @Override
+        public void run() {
+            String[] resourceTypes;
+            synchronized (mPendingLinkTypes) {
+                resourceTypes = mPendingLinkTypes.toArray(new String[0]);
+                mPendingLinkTypes.clear();
+            }
 
-            boolean tracked = false;
+            for (String rt : resourceTypes) {
+                try {
+                    AlexaIotivityBridgeDemo.msg("Finding all resources of type " + rt);
+                    String requestUri = OcPlatform.WELL_KNOWN_QUERY + "?rt=" + rt;
+                    OcPlatform.findResource("", requestUri, EnumSet.of(OcConnectivityType.CT_DEFAULT), new ResourceFoundListener(rt));
 
-            if (resourceUri.equalsIgnoreCase(mHref)) {
-                if (!mResourceLookup.containsKey(resourceUri)) {
-                    AlexaIotivityBridgeDemo.msg("URI of the new linked resource: " + resourceUri);
+                } catch (OcException e) {
+                    AlexaIotivityBridgeDemo.msgError("Failed to find resources of type " + rt + " -- " + e.toString());
+                }
+            }
+        }
+    }
 
-                    if (resourceUri.startsWith(BinarySwitch.UPNP_OIC_URI_PREFIX_BINARY_SWITCH)
-                            || resourceUri.startsWith(BinarySwitch.OCF_OIC_URI_PREFIX_BINARY_SWITCH)) {
-                        BinarySwitch binarySwitch = new BinarySwitch();
-                        binarySwitch.setUri(resourceUri);
+    /**
+     * Local method to create the service behind a link and attach it to its light
+     *
+     * @param light       light owning the link
+     * @param resourceUri uri of the linked resource
+     * @return the attached service, or null for an unexpected resource
+     */
+    private Service attachLinkedService(Light light, String resourceUri) {
+        Service service = null;
+
+        if (resourceUri.startsWith(BinarySwitch.UPNP_OIC_URI_PREFIX_BINARY_SWITCH)
+                || resourceUri.startsWith(BinarySwitch.OCF_OIC_URI_PREFIX_BINARY_SWITCH)) {
+            BinarySwitch binarySwitch = new BinarySwitch();
+            binarySwitch.setUri(resourceUri);
+            light.setBinarySwitch(binarySwitch);
+            service = binarySwitch;
+
+        } else if (resourceUri.startsWith(Brightness.UPNP_OIC_URI_PREFIX_BRIGHTNESS)
+                || resourceUri.startsWith(Brightness.OCF_OIC_URI_PREFIX_BRIGHTNESS)) {
+            Brightness brightness = new Brightness();
+            brightness.setUri(resourceUri);
+            light.setBrightness(brightness);
+            service = brightness;
+
+        } else if (resourceUri.startsWith(Configuration.OCF_OIC_URI_PREFIX_CONFIG)) {
+            Configuration config = new Configuration();
+            config.setUri(resourceUri);
+            light.setConfiguration(config);
+            service = config;
 
-                        // Update the device
-                        Light light = (Light) mResourceLookup.get(mParentUri);
-                        if (light != null) {
-                            light.setBinarySwitch(binarySwitch);
-                            mResourceLookup.put(resourceUri, binarySwitch);
-                            tracked = true;
-                        }
+        } else {
+            // Unexpected resource
+            AlexaIotivityBridgeDemo.msg("URI of an unexpected resource: " + resourceUri);
+        }
 
-                    } else if (resourceUri.startsWith(Brightness.UPNP_OIC_URI_PREFIX_BRIGHTNESS)
-                            || resourceUri.startsWith(Brightness.OCF_OIC_URI_PREFIX_BRIGHTNESS)) {
-                        Brightness brightness = new Brightness();
-                        brightness.setUri(resourceUri);
-
-                        // Update the device
-                        Light light = (Light) mResourceLookup.get(mParentUri);
-                        if (light != null) {
-                            light.setBrightness(brightness);
-                            mResourceLookup.put(resourceUri, brightness);
-                            tracked = true;
-                        }
+        return service;
+    }
 
-                    } else if (resourceUri.startsWith(Configuration.OCF_OIC_URI_PREFIX_CONFIG)) {
-                        Configuration config = new Configuration();
-                        config.setUri(resourceUri);
+    /**
+     * Resource found listener specifically for links, replies are routed to the owning
+     * device through the pending link lookup.
+     */
+    class ResourceFoundListener implements OcPlatform.OnResourceFoundListener {
 
-                        // Update the device
-                        Light light = (Light) mResourceLookup.get(mParentUri);
-                        if (light != null) {
-                            light.setConfiguration(config);
-                            mResourceLookup.put(resourceUri, config);
-                            tracked = true;
-                        }
+        private String mResourceType;
 
-                    } else {
-                        // Unexpected resource
-                        AlexaIotivityBridgeDemo.msg("URI of an unexpected resource: " + resourceUri);
-                    }
+        ResourceFoundListener(String resourceType) {
+            mResourceType = resourceType;
+        }
 
-                    mIotivityResourceLookup.put(resourceUri, ocResource);
+        public void onResourceFound(final OcResource ocResource) {
+            if (null == ocResource) {
+                AlexaIotivityBridgeDemo.msgError("Found resource is invalid");
+                return;
+            }
 
-                    if (tracked) {
-                        // Call a local method which will internally invoke "get" API on the found resource
-                        getResourceRepresentation(ocResource);
+            final PendingLink pendingLink = mPendingLinkLookup.remove(ocResource.getUri().toLowerCase());
+            if (pendingLink == null) {
+                // not a link we are waiting for
+                return;
+            }
 
-                        // Call a local method which will internally invoke "observe" API on the found resource
-                        observeFoundResource(ocResource);
-                    }
+            mDeviceExecutor.execute(pendingLink.mParentUri, new Runnable() {
+                @Override
+                public void run() {
+                    handleLinkFound(ocResource, pendingLink);
                 }
+            });
+        }
+
+        private void handleLinkFound(OcResource ocResource, PendingLink pendingLink) {
+            OcResource linkResource = registerLink(ocResource, pendingLink.mParentUri);
+            if (linkResource != null) {
+                // Call a local method which will internally invoke "get" API on the found resource
+                getResourceRepresentation(linkResource);
+
+                // Call a local method which will internally invoke "observe" API on the found resource
+                observeFoundResource(linkResource);
             }
         }
 
-        public synchronized void onFindResourceFailed(Throwable throwable, String uri) {
+        public void onFindResourceFailed(Throwable throwable, String uri) {
             if (throwable instanceof OcException) {
                 OcException ocEx = (OcException) throwable;
                 AlexaIotivityBridgeDemo.msgError(ocEx.toString());
@@ -239,8 +508,38 @@ public class IotivityClient implements
                 AlexaIotivityBridgeDemo.msgError("Uri: " + uri + " Error code: " + errCode);
             }
 
-            AlexaIotivityBridgeDemo.msgError("Find resource failed");
+            AlexaIotivityBridgeDemo.msgError("Find resource of type " + mResourceType + " failed");
+        }
+    }
+
+    /**
+     * Local method to track a newly found linked resource of a light
+     *
+     * @param ocResource linked resource
+     * @param parentUri  uri of the light
+     * @return the tracked handle of the resource, on the endpoint of the light, or null if the resource is not new
+     */
+    private OcResource registerLink(OcResource ocResource, String parentUri) {
+        String resourceUri = ocResource.getUri();
+        boolean tracked = false;
+
+        if (mDeviceRegistry.get(resourceUri) == null) {
+            AlexaIotivityBridgeDemo.msg("URI of the new linked resource: " + resourceUri);
+
+            DeviceRegistry.Entry entry = mDeviceRegistry.getLight(parentUri);
+            if ((entry != null) && (entry.getOcResource() != null)) {
+                // the first answer to the link query may come from another endpoint than the one chosen for the light
+                OcResource hostedResource = rehostResource(ocResource, entry.getOcResource());
+                if (hostedResource != null) {
+                    ocResource = hostedResource;
+                }
+            }
+            if (entry != null) {
+                Service service = attachLinkedService(entry.getLight(), resourceUri);
+                tracked = (service != null) && mDeviceRegistry.addLink(entry, resourceUri, ocResource, service);
+            }
         }
+        return tracked ? ocResource : null;
     }
 
     /**
@@ -251,7 +550,7 @@ public class IotivityClient implements
      *            array of found resources
      */
     @Override
-    public synchronized void onResourcesFound(OcResource[] ocResources) {
+    public void onResourcesFound(OcResource[] ocResources) {
         if (null == ocResources) {
             AlexaIotivityBridgeDemo.msgError("Found resources is invalid");
             return;
@@ -263,7 +562,7 @@ public class IotivityClient implements
     }
 
     @Override
-    public synchronized void onFindResourcesFailed(Throwable throwable, String uri) {
+    public void onFindResourcesFailed(Throwable throwable, String uri) {
         if (throwable instanceof OcException) {
             OcException ocEx = (OcException) throwable;
             AlexaIotivityBridgeDemo.msgError(ocEx.toString());
@@ -276,519 +575,2618 @@ public class IotivityClient implements
     }
 
     /**
-     * Local method to get representation of a found resource
+     * Sends a unicast discovery request to each host with a known light, instead of a multicast
+     * to the whole network. New hosts are still only found by multicast discovery.
      *
-     * @param ocResource found resource
+     * @return number of hosts queried, or -1 if discovery is delayed
      */
-    private void getResourceRepresentation(OcResource ocResource) {
+    public int refreshKnownHosts() {
+        if (mStopping || isDiscoveryDelayed()) {
+            return -1;
+        }
+        Set<String> hosts = new HashSet<>();
+        for (DeviceRegistry.Entry entry : mDeviceRegistry.getLights()) {
+            OcResource ocResource = entry.getOcResource();
+            if ((ocResource != null) && (ocResource.getHost() != null)) {
+                hosts.add(ocResource.getHost());
+            }
+        }
 
-        Map<String, String> queryParams = new HashMap<>();
-        try {
-            // Invoke resource's "get" API with a OcResource.OnGetListener event listener implementation
-            ocResource.get(queryParams, this);
+        String slowestHost = null;
+        long slowestLatency = -1;
+        for (Map.Entry<String, Long> entry : mHostLatencyLookup.entrySet()) {
+            if (entry.getValue() > slowestLatency) {
+                slowestHost = entry.getKey();
+                slowestLatency = entry.getValue();
+            }
+        }
+        AlexaIotivityBridgeDemo.msg("Unicast refresh of " + hosts.size() + " hosts"
+                + ((slowestHost != null) ? ", slowest was " + slowestHost + " at " + slowestLatency + " ms" : ""));
+        mHostLatencyLookup.keySet().retainAll(hosts);
 
-        } catch (OcException e) {
-            AlexaIotivityBridgeDemo.msgError("Error occurred while invoking \"get\" API -- " + e.toString());
+        String requestUri = OcPlatform.WELL_KNOWN_QUERY + "?rt=" + Light.OIC_TYPE_DEVICE_LIGHT;
+        for (String host : hosts) {
+            try {
+                OcPlatform.findResources(host, requestUri, EnumSet.of(OcConnectivityType.CT_DEFAULT),
+                        new HostRefreshListener(host, System.currentTimeMillis()));
+
+            } catch (OcException e) {
+                AlexaIotivityBridgeDemo.msgError("Failed to refresh host " + host + " -- " + e.toString());
+            }
         }
+
+        return hosts.size();
     }
 
     /**
-     * An event handler to be executed whenever a "get" request completes successfully
-     *
-     * @param list             list of the header options
-     * @param ocRepresentation representation of a resource
+     * Sends a multicast discovery request for lights, the response time of each endpoint is
+     * recorded for the LOWEST_RTT endpoint policy.
      */
-    @Override
-    public synchronized void onGetCompleted(List<OcHeaderOption> list, OcRepresentation ocRepresentation) {
-
-        try {
-            // Read attribute values into local representation of resource
-            final String ocRepUri = ocRepresentation.getUri();
-            if (ocRepUri != null && !ocRepUri.isEmpty()) {
-//                AlexaIotivityBridgeDemo.msg("Get Resource URI: " + ocRepUri);
-
-                Resource resource = mResourceLookup.get(ocRepUri);
-                if (resource != null) {
-                    resource.setOcRepresentation(ocRepresentation);
-//                    AlexaIotivityBridgeDemo.msg("Get Resource attributes: " + resource.toString());
+    public void findLights() throws OcException {
+        if (mStopping || isDiscoveryDelayed()) {
+            return;
+        }
+        String requestUri = OcPlatform.WELL_KNOWN_QUERY + "?rt=" + Light.OIC_TYPE_DEVICE_LIGHT;
+        mMulticastRequestMillis = System.currentTimeMillis();
+        OcPlatform.findResources("", requestUri, EnumSet.of(OcConnectivityType.CT_DEFAULT), new MulticastFoundListener());
+    }
 
-                    if (resource instanceof Device) {
-                        Device device = (Device) resource;
-                        Links links = device.getLinks();
-                        for (Link link : links.getLinks()) {
-                            String href = link.getHref();
-                            if (!href.equals("/oic/d")) {
-                                // rt could be String or String[]
-                                Object rt = link.getRt();
-                                String rtAsString = null;
-                                if (rt instanceof String) {
-                                    rtAsString = (String) rt;
-
-                                } else if (rt instanceof String[]) {
-                                    if (((String[]) rt).length > 0) {
-                                        rtAsString = ((String[]) rt)[0];
-                                    } else {
-                                        AlexaIotivityBridgeDemo.msgError("(String[])rt is empty");
-                                    }
+    /**
+     * Local method to hold back discovery while notifications are backing up, it would only add to the backlog
+     */
+    private boolean isDiscoveryDelayed() {
+        DeviceExecutor.Load load = mDeviceExecutor.getLoad();
+        if (load == DeviceExecutor.Load.NORMAL) {
+            return false;
+        }
+        mDelayedDiscoveryCount.incrementAndGet();
+        AlexaIotivityBridgeDemo.msg("Discovery delayed, " + mDeviceExecutor.getQueuedNotificationCount() + " notifications queued");
+        return true;
+    }
 
-                                } else {
-                                    AlexaIotivityBridgeDemo.msgError("Unknown rt type of " + rt.getClass().getName());
-                                }
+    /**
+     * Resources found listener for multicast discovery, measures the response time of each endpoint.
+     */
+    class MulticastFoundListener implements OcPlatform.OnResourcesFoundListener {
 
-                                if ((rtAsString != null) && (!mResourceLookup.containsKey(href))) {
-                                    AlexaIotivityBridgeDemo.msg("Finding all resources of type " + rtAsString);
-                                    String requestUri = OcPlatform.WELL_KNOWN_QUERY + "?rt=" + rtAsString;
-                                    OcPlatform.findResource("", requestUri, EnumSet.of(OcConnectivityType.CT_DEFAULT), new ResourceFoundListener(ocRepUri, href));
-                                }
-                            }
-                        }
+        private final long mRequestMillis = mMulticastRequestMillis;
 
-                        if (resource instanceof Light) {
-                            Light light = (Light) resource;
+        @Override
+        public void onResourcesFound(OcResource[] ocResources) {
+            if ((ocResources != null) && (ocResources.length > 0) && (ocResources[0] != null)) {
+                long now = System.currentTimeMillis();
+                String host = ocResources[0].getHost();
+                EndpointLatency latency = mEndpointLatencyLookup.get(host);
+                if (latency == null) {
+                    mEndpointLatencyLookup.put(host, new EndpointLatency(now - mRequestMillis, now));
+                } else {
+                    latency.update(now - mRequestMillis, now);
+                }
+            }
+            IotivityClient.this.onResourcesFound(ocResources);
+        }
 
-                            if (((light.getBinarySwitch() != null) && (light.getBinarySwitch().isInitialized())
-                                    && (light.getBrightness() != null) && light.getBrightness().isInitialized())
-                                    || (!light.hasLinksProperty())) {
+        @Override
+        public void onFindResourcesFailed(Throwable throwable, String uri) {
+            IotivityClient.this.onFindResourcesFailed(throwable, uri);
+        }
+    }
 
-                                ConnectedThing.LightDevice lightDevice = mConnectedThingLookup.get(light.getUri());
-                                if (lightDevice == null) {
-                                    lightDevice = new ConnectedThing.LightDevice();
-                                    lightDevice.setUri(light.getUri());
-                                }
-                                lightDevice.setName(light.getName());
-                                lightDevice.setPowerOn(light.getState());
-                                lightDevice.setBrightness(light.getLightLevel());
-                                mConnectedThingLookup.put(light.getUri(), lightDevice);
-                                mStaleResourceUriLookup.put(light.getUri(), System.currentTimeMillis());
-
-                                // publish updates to connected thing
-                                ConnectedThing.LightDevice[] lightDevices = mConnectedThingLookup.values().toArray(new ConnectedThing.LightDevice[0]);
-                                Arrays.sort(lightDevices, nameComparator);
-                                mConnectedThing.setLightDevices(lightDevices);
-//                                AlexaIotivityBridgeDemo.publishUpdatePayload(toUpdatePayload(lightDevices));
-                            }
+    /**
+     * Smoothed multicast response time of an endpoint
+     */
+    static class EndpointLatency {
+        private long mLatencyMillis;
+        private long mUpdatedMillis;
 
-                        } else {
-                            // TODO: handle additional devices
-                        }
-                    }
+        EndpointLatency(long latencyMillis, long now) {
+            mLatencyMillis = latencyMillis;
+            mUpdatedMillis = now;
+        }
 
-                } else {
-                    AlexaIotivityBridgeDemo.msgError("Get No resource for uri " + ocRepUri);
-                }
+        synchronized void update(long latencyMillis, long now) {
+            // responders delay multicast replies at random, so average over a few discoveries
+            mLatencyMillis = (3 * mLatencyMillis + latencyMillis) / 4;
+            mUpdatedMillis = now;
+        }
 
-            } else {
-                AlexaIotivityBridgeDemo.msgError("Get No Resource URI");
-            }
+        synchronized long getLatencyMillis() {
+            return mLatencyMillis;
+        }
 
-        } catch (OcException e) {
-            AlexaIotivityBridgeDemo.msgError("Get Failed to read the attributes of resource -- " + e.toString());
+        synchronized long getUpdatedMillis() {
+            return mUpdatedMillis;
         }
     }
 
     /**
-     * An event handler to be executed whenever a "get" request fails
-     *
-     * @param throwable exception
+     * @return true if both resources belong to the same device, resources without a device id can not be
+     *         confirmed to and are kept apart
      */
-    @Override
-    public synchronized void onGetFailed(Throwable throwable) {
-        if (throwable instanceof OcException) {
-            OcException ocEx = (OcException) throwable;
-            AlexaIotivityBridgeDemo.msgError(ocEx.toString());
-            ErrorCode errCode = ocEx.getErrorCode();
-            // do something based on errorCode
-            AlexaIotivityBridgeDemo.msgError("Error code: " + errCode);
+    private static boolean isSameDevice(OcResource lhs, OcResource rhs) {
+        String lhsId = lhs.getServerId();
+        String rhsId = rhs.getServerId();
+        if ((lhsId == null) || lhsId.isEmpty() || (rhsId == null) || rhsId.isEmpty()) {
+            return false;
         }
-        AlexaIotivityBridgeDemo.msgError("Failed to get representation of a found light resource");
+        return lhsId.equalsIgnoreCase(rhsId);
     }
 
     /**
-     * Set state for a light resource
+     * @return true if a discovered resource belongs to the device of a light restored from the cache, the cache
+     *         has no device id so the first device found for the uri is taken
      */
-    public void updateLight(String uri, boolean newState, int newLightLevel) {
-        ConnectedThing.LightDevice lightDevice = mConnectedThingLookup.get(uri);
-        if (lightDevice != null) {
-            OcResource ocResource = mIotivityResourceLookup.get(uri);
-            if (ocResource != null) {
-                putLightRepresentation(ocResource, newState, newLightLevel);
-            }
+    private boolean isSameRestoredDevice(String uri, OcResource ocResource) {
+        String serverId = ocResource.getServerId();
+        if ((serverId == null) || serverId.isEmpty()) {
+            return false;
+        }
+        String restoredId = mRestoredServerIdLookup.putIfAbsent(uri, serverId);
+        return (restoredId == null) || restoredId.equalsIgnoreCase(serverId);
+    }
+
+    private static boolean isIpv6Endpoint(OcResource ocResource) {
+        EnumSet<OcConnectivityType> connectivityTypes = ocResource.getConnectivityTypeSet();
+        if ((connectivityTypes != null) && connectivityTypes.contains(OcConnectivityType.CT_IP_USE_V6)) {
+            return true;
         }
+        String host = ocResource.getHost();
+        return (host != null) && host.contains("[");
     }
 
     /**
-     * Rename a light resource
+     * @return true if the endpoint policy prefers the candidate endpoint over the current one
      */
-    public void updateLight(String uri, String newName) {
-        ConnectedThing.LightDevice lightDevice = mConnectedThingLookup.get(uri);
-        if (lightDevice != null) {
-            OcResource ocResource = mIotivityResourceLookup.get(uri);
-            if (ocResource != null) {
-                putLightRepresentation(ocResource, newName);
-            }
+    private boolean isPreferredEndpoint(OcResource candidate, OcResource current) {
+        switch (mEndpointPolicy) {
+            case IPV4:
+                return isIpv6Endpoint(current) && !isIpv6Endpoint(candidate);
+            case IPV6:
+                return !isIpv6Endpoint(current) && isIpv6Endpoint(candidate);
+            case LOWEST_RTT:
+                EndpointLatency candidateLatency = mEndpointLatencyLookup.get(candidate.getHost());
+                EndpointLatency currentLatency = mEndpointLatencyLookup.get(current.getHost());
+                if (candidateLatency == null) {
+                    return false;
+                }
+                if (currentLatency == null) {
+                    return true;
+                }
+                return candidateLatency.getLatencyMillis() + ENDPOINT_SWITCH_MARGIN_MILLIS < currentLatency.getLatencyMillis();
+            default:
+                return false;
         }
     }
 
     /**
-     * Local method to put a different name for this light resource
+     * Local method to move the observation and command path of a light to another endpoint
      */
-    private void putLightRepresentation(OcResource ocResource, String newName) {
-        final String resourceUri = ocResource.getUri();
+    private void switchEndpoint(String uri, OcResource oldResource, OcResource newResource) {
+        AlexaIotivityBridgeDemo.msg("Switching light " + uri + " from " + oldResource.getHost() + " to " + newResource.getHost());
+        replaceResource(uri, oldResource, newResource);
+        mEndpointSwitchCount.incrementAndGet();
+    }
 
-        Light light = (Light) mResourceLookup.get(resourceUri);
-        if (light != null && resourceUri.startsWith(Light.OCF_OIC_URI_PREFIX_LIGHT)) {
-            if (light.hasLinksProperty()) {
-                final Configuration config = light.getConfiguration();
-                if ((config != null) && (config.isInitialized())) {
-                    config.setName(newName);
-                    OcRepresentation configRepresentation = null;
+    /**
+     * Local method to replace the handle of a light and of its linked resources, observations are moved along
+     */
+    private void replaceResource(String uri, OcResource oldResource, OcResource newResource) {
+        mRestoredHandleUris.remove(uri);
+        mRestoredServerIdLookup.remove(uri);
+        if (mObservedResourceUris.remove(uri)) {
+            try {
+                oldResource.cancelObserve();
+
+            } catch (OcException e) {
+                AlexaIotivityBridgeDemo.msgError("Error occurred while invoking \"cancelObserve\" API for resource "
+                        + uri + " -- " + e.toString());
+            }
+        }
+        DeviceRegistry.Entry entry = mDeviceRegistry.getLight(uri);
+        if (entry != null) {
+            entry.setOcResource(newResource);
+
+            // the linked resources are served by the same device, commands to them take the new endpoint too
+            for (OcResource oldLinkResource : entry.getLinkResources()) {
+                OcResource newLinkResource = rehostResource(oldLinkResource, newResource);
+                if ((newLinkResource == null)
+                        || (!mDeviceRegistry.replaceLinkResource(entry, oldLinkResource.getUri(), newLinkResource))) {
+                    continue;
+                }
+                if (mObservedResourceUris.remove(oldLinkResource.getUri())) {
                     try {
-                        configRepresentation = config.getOcRepresentation();
+                        oldLinkResource.cancelObserve();
 
                     } catch (OcException e) {
-                        AlexaIotivityBridgeDemo.msgError("Failed to get OcRepresentation from a configuration -- " + e.toString());
+                        AlexaIotivityBridgeDemo.msgError("Error occurred while invoking \"cancelObserve\" API for resource "
+                                + oldLinkResource.getUri() + " -- " + e.toString());
                     }
+                    observeFoundResource(newLinkResource);
+                }
+            }
+        }
 
-                    if (configRepresentation != null) {
-                        Map<String, String> queryParams = new HashMap<>();
-                        try {
-                            // Invoke resource's "put" API with a new representation
-                            OcResource configResource = mIotivityResourceLookup.get(config.getUri());
-                            if (configResource != null) {
-                                configResource.put(configRepresentation, queryParams, this);
-
-                            } else {
-                                AlexaIotivityBridgeDemo.msgError("No configuration for light uri " + resourceUri);
-                            }
+        observeFoundResource(newResource);
+        getResourceRepresentation(newResource);
+    }
 
-                        } catch (OcException e) {
-                            AlexaIotivityBridgeDemo.msgError("Error occurred while invoking \"put\" API -- " + e.toString());
-                        }
-                    }
+    /**
+     * Local method to construct the handle of a resource on the endpoint of another resource of the same device
+     *
+     * @return the handle on the endpoint, the resource itself if it is already there with the same connectivity,
+     *         or null if it can not be constructed
+     */
+    private static OcResource rehostResource(OcResource ocResource, OcResource endpointResource) {
+        if (isSameHost(ocResource.getHost(), endpointResource.getHost())
+                && Objects.equals(ocResource.getConnectivityTypeSet(), endpointResource.getConnectivityTypeSet())) {
+            return ocResource;
+        }
+        try {
+            return OcPlatform.constructResourceObject(endpointResource.getHost(), ocResource.getUri(),
+                    endpointResource.getConnectivityTypeSet(), ocResource.isObservable(), ocResource.getResourceTypes(),
+                    ocResource.getResourceInterfaces());
 
-                } else {
-                    if (config == null) {
-                        AlexaIotivityBridgeDemo.msgError("No configuration for light uri " + resourceUri);
+        } catch (OcException e) {
+            AlexaIotivityBridgeDemo.msgError("Failed to move resource " + ocResource.getUri() + " to "
+                    + endpointResource.getHost() + " -- " + e.toString());
+            return null;
+        }
+    }
 
-                    } else {
-                        AlexaIotivityBridgeDemo.msgError("No configuration (initialized) for light uri " + resourceUri);
-                    }
-                }
+    public EndpointPolicy getEndpointPolicy() {
+        return mEndpointPolicy;
+    }
 
-            } else {
-                // properties are on the device
-                light.setName(newName);
+    public void setEndpointPolicy(EndpointPolicy endpointPolicy) {
+        mEndpointPolicy = endpointPolicy;
+    }
+
+    /**
+     * @return number of discovery replies for a light already known through another endpoint
+     */
+    public long getDuplicateEndpointCount() {
+        return mDuplicateEndpointCount.get();
+    }
+
+    /**
+     * @return number of times a light was moved to a preferred endpoint
+     */
+    public long getEndpointSwitchCount() {
+        return mEndpointSwitchCount.get();
+    }
+
+    /**
+     * @return number of observe notifications dropped because their sequence number was already applied
+     */
+    public long getObserveDuplicateCount() {
+        return mObserveDuplicateCount.get();
+    }
+
+    /**
+     * @return number of observe notifications dropped because a newer one was already applied
+     */
+    public long getObserveOutOfOrderCount() {
+        return mObserveOutOfOrderCount.get();
+    }
+
+    /**
+     * @return round trip time in milliseconds of the last unicast refresh for each host
+     */
+    public Map<String, Long> getHostLatencies() {
+        return new HashMap<>(mHostLatencyLookup);
+    }
+
+    /**
+     * Resources found listener for a unicast refresh of a single host, measures the round trip time.
+     */
+    class HostRefreshListener implements OcPlatform.OnResourcesFoundListener {
+
+        private String mHost;
+        private long mRequestMillis;
+
+        HostRefreshListener(String host, long requestMillis) {
+            mHost = host;
+            mRequestMillis = requestMillis;
+        }
+
+        @Override
+        public void onResourcesFound(OcResource[] ocResources) {
+            mHostLatencyLookup.put(mHost, System.currentTimeMillis() - mRequestMillis);
+            IotivityClient.this.onResourcesFound(ocResources);
+        }
+
+        @Override
+        public void onFindResourcesFailed(Throwable throwable, String uri) {
+            AlexaIotivityBridgeDemo.msgError("Unicast refresh failed for host " + mHost);
+            IotivityClient.this.onFindResourcesFailed(throwable, uri);
+        }
+    }
+
+    /**
+     * Resources found listener for the lookup of a host which announced its presence, kept apart
+     * from the unicast refresh so that it does not count towards the refresh latencies.
+     */
+    class PresenceLookupListener implements OcPlatform.OnResourcesFoundListener {
+
+        private String mHost;
+
+        PresenceLookupListener(String host) {
+            mHost = host;
+        }
+
+        @Override
+        public void onResourcesFound(OcResource[] ocResources) {
+            IotivityClient.this.onResourcesFound(ocResources);
+        }
+
+        @Override
+        public void onFindResourcesFailed(Throwable throwable, String uri) {
+            AlexaIotivityBridgeDemo.msgError("Presence lookup failed for host " + mHost);
+            IotivityClient.this.onFindResourcesFailed(throwable, uri);
+        }
+    }
+
+    /**
+     * Local method to get representation of a found resource
+     *
+     * @param ocResource found resource
+     */
+    private void getResourceRepresentation(OcResource ocResource) {
+
+        Map<String, String> queryParams = new HashMap<>();
+        try {
+            // Invoke resource's "get" API with a OcResource.OnGetListener event listener implementation
+            ocResource.get(queryParams, this);
+
+        } catch (OcException e) {
+            AlexaIotivityBridgeDemo.msgError("Error occurred while invoking \"get\" API -- " + e.toString());
+        }
+    }
+
+    /**
+     * An event handler to be executed whenever a "get" request completes successfully
+     *
+     * @param list             list of the header options
+     * @param ocRepresentation representation of a resource
+     */
+    @Override
+    public void onGetCompleted(final List<OcHeaderOption> list, final OcRepresentation ocRepresentation) {
+        // only the representation is kept, decoding happens on the lane of the light. GET answers set up
+        // lights and their links, so unlike notifications they are never dropped.
+        String resourceUri = ocRepresentation.getUri();
+        mDeviceExecutor.execute(getLaneKey(resourceUri), new Runnable() {
+            @Override
+            public void run() {
+                handleGetCompleted(list, ocRepresentation);
+            }
+        });
+    }
+
+    private void handleGetCompleted(List<OcHeaderOption> list, OcRepresentation ocRepresentation) {
+
+        try {
+            // Read attribute values into local representation of resource
+            final String ocRepUri = ocRepresentation.getUri();
+            if (ocRepUri != null && !ocRepUri.isEmpty()) {
+//                AlexaIotivityBridgeDemo.msg("Get Resource URI: " + ocRepUri);
+
+                DeviceRegistry.Entry entry = mDeviceRegistry.get(ocRepUri);
+                Resource resource = (entry != null) ? entry.getResource(ocRepUri) : null;
+                if (resource != null) {
+                    String previousName = getDeviceName(resource);
+                    resource.setOcRepresentation(ocRepresentation);
+                    mRestoredUris.remove(ocRepUri);
+                    mUnconfirmedUris.remove(ocRepUri);
+                    if ((previousName != null) && (!previousName.isEmpty())
+                            && (!previousName.equals(getDeviceName(resource)))) {
+                        // renamed, so the cached device info is out of date
+                        OcResource lightResource = entry.getOcResource();
+                        if (lightResource != null) {
+                            invalidateDeviceInfo(lightResource.getHost());
+                        }
+                    }
+//                    AlexaIotivityBridgeDemo.msg("Get Resource attributes: " + resource.toString());
+
+                    if (resource instanceof Device) {
+                        Device device = (Device) resource;
+                        Links links = device.getLinks();
+                        for (Link link : links.getLinks()) {
+                            String href = link.getHref();
+                            if (!href.equals("/oic/d")) {
+                                String rtAsString = getFirstResourceType(link);
+                                if ((rtAsString != null) && (mDeviceRegistry.get(href) == null)
+                                        && (!mWorkflowUris.contains(ocRepUri))) {
+                                    requestLinkResolution(ocRepUri, href, rtAsString);
+                                }
+                            }
+                        }
+
+                        if (resource instanceof Light) {
+                            updateLightDevice(entry);
+
+                        } else {
+                            // TODO: handle additional devices
+                        }
+
+                    } else if (resource instanceof Service) {
+                        // A linked resource changed, so the device it belongs to has changed
+                        updateLightDevice(entry);
+                    }
+
+                } else {
+                    AlexaIotivityBridgeDemo.msgError("Get No resource for uri " + ocRepUri);
+                }
+
+            } else {
+                AlexaIotivityBridgeDemo.msgError("Get No Resource URI");
+            }
+
+        } catch (OcException e) {
+            AlexaIotivityBridgeDemo.msgError("Get Failed to read the attributes of resource -- " + e.toString());
+        }
+    }
+
+    /**
+     * Local method to get the device name carried by a resource
+     *
+     * @param resource light or configuration resource
+     * @return the name, or null for resources which do not carry one
+     */
+    private static String getDeviceName(Resource resource) {
+        if (resource instanceof Configuration) {
+            return ((Configuration) resource).getName();
+        } else if (resource instanceof Light) {
+            return ((Light) resource).getName();
+        }
+        return null;
+    }
+
+    /**
+     * Local method to get the first resource type of a link, rt could be String or String[]
+     *
+     * @param link link of a device
+     * @return the first resource type, or null if there is none
+     */
+    private static String getFirstResourceType(Link link) {
+        Object rt = link.getRt();
+        String rtAsString = null;
+        if (rt instanceof String) {
+            rtAsString = (String) rt;
+
+        } else if (rt instanceof String[]) {
+            if (((String[]) rt).length > 0) {
+                rtAsString = ((String[]) rt)[0];
+            } else {
+                AlexaIotivityBridgeDemo.msgError("(String[])rt is empty");
+            }
+
+        } else {
+            AlexaIotivityBridgeDemo.msgError("Unknown rt type of " + rt.getClass().getName());
+        }
+
+        return rtAsString;
+    }
+
+    /**
+     * Local method to publish the current state of a light to the connected thing
+     *
+     * @param entry registry entry of the light whose state may have changed
+     */
+    private void updateLightDevice(DeviceRegistry.Entry entry) {
+        Light light = entry.getLight();
+        if (((light.getBinarySwitch() != null) && (light.getBinarySwitch().isInitialized())
+                && (light.getBrightness() != null) && light.getBrightness().isInitialized())
+                || (!light.hasLinksProperty())) {
+
+            ConnectedThing.LightDevice lightDevice = entry.getLightDevice();
+            if (lightDevice == null) {
+                lightDevice = new ConnectedThing.LightDevice();
+                lightDevice.setUri(light.getUri());
+            }
+            boolean stateChanged = (lightDevice.getPowerOn() != light.getState())
+                    || (lightDevice.getBrightness() != light.getLightLevel());
+            lightDevice.setName(light.getName());
+            // reported state is not echoed back to the light, it would override commands still in the command buffer
+            lightDevice.reportPowerOn(light.getState());
+            lightDevice.reportBrightness(light.getLightLevel());
+            long now = System.currentTimeMillis();
+            entry.setLightDevice(lightDevice);
+            entry.setLastSeenMillis(now);
+            mStaleExpiryWheel.touch(light.getUri(), now);
+            mDeviceCacheDirty = true;
+
+            // the snapshot is only rebuilt for a new or renamed device, but power and brightness changes republish
+            // it as well: after a shadow delta the connected thing holds devices of its own, not the indexed ones
+            if (mLightDeviceIndex.update(lightDevice) || stateChanged) {
+                publishLightDevices();
+            }
+        }
+    }
+
+    /**
+     * Local method to publish all light devices, sorted by name, to the connected thing
+     */
+    private void publishLightDevices() {
+        // lanes do not wait on each other, one of them publishes the changes of all
+        mPublishRequested.set(true);
+        while (mPublishRequested.get() && mPublishing.compareAndSet(false, true)) {
+            try {
+                mPublishRequested.set(false);
+                ConnectedThing.LightDevice[] lightDevices = mLightDeviceIndex.getSnapshot();
+                mConnectedThing.setLightDevices(lightDevices);
+//                AlexaIotivityBridgeDemo.publishUpdatePayload(toUpdatePayload(lightDevices));
+
+            } finally {
+                mPublishing.set(false);
+            }
+        }
+    }
+
+    /**
+     * Local method to forget a light and its linked resources
+     *
+     * @param resourceUri uri of the light resource
+     * @return true if a light was removed
+     */
+    private boolean removeLight(String resourceUri) {
+        DeviceRegistry.Entry entry = mDeviceRegistry.removeLight(resourceUri);
+        if (entry == null) {
+            return false;
+        }
+
+        for (Link link : entry.getLight().getLinks().getLinks()) {
+            AlexaIotivityBridgeDemo.msg("Removing uri link " + link.getHref());
+            mObservedResourceUris.remove(link.getHref());
+            mPendingLinkLookup.remove(link.getHref().toLowerCase());
+            mNotificationDeadlineLookup.remove(link.getHref());
+            mUnconfirmedUris.remove(link.getHref());
+        }
+        mLightDeviceIndex.remove(resourceUri);
+        mStaleExpiryWheel.remove(resourceUri);
+        mObservedResourceUris.remove(resourceUri);
+        mRestoredUris.remove(resourceUri);
+        mRestoredHandleUris.remove(resourceUri);
+        mRestoredServerIdLookup.remove(resourceUri);
+        mObserveHealthLookup.remove(resourceUri);
+        mNotificationDeadlineLookup.remove(resourceUri);
+        mBatchRefusedUris.remove(resourceUri);
+        mUnconfirmedUris.remove(resourceUri);
+        CommandBuffer buffer = mCommandBufferLookup.remove(resourceUri);
+        if (buffer != null) {
+            List<PendingCommand> commands = buffer.takeWaiting();
+            mBufferedCommandCount.addAndGet(-commands.size());
+            failCommands(commands, new IllegalArgumentException("Light " + resourceUri + " was removed"));
+        }
+        mDeviceCacheDirty = true;
+        notifyDeviceSetChanged();
+
+        return true;
+    }
+
+    /**
+     * Local method to handle a light which was rediscovered while already being observed
+     *
+     * @param resourceUri uri of the light resource
+     */
+    private void refreshKnownLight(String resourceUri) {
+        long now = System.currentTimeMillis();
+        mStaleExpiryWheel.refresh(resourceUri, now);
+
+        DeviceRegistry.Entry entry = mDeviceRegistry.getLight(resourceUri);
+        if (entry == null) {
+            return;
+        }
+        entry.setLastSeenMillis(now);
+
+        // Re-observe any linked resource whose observation has failed, polled lights are retried on their own schedule
+        if (!isPolled(resourceUri)) {
+            for (OcResource linkResource : entry.getLinkResources()) {
+                if (!mObservedResourceUris.contains(linkResource.getUri())) {
+                    AlexaIotivityBridgeDemo.msg("Restarting observe for linked resource " + linkResource.getUri());
+                    getResourceRepresentation(linkResource);
+                    observeFoundResource(linkResource);
+                }
+            }
+        }
+    }
+
+    /**
+     * An event handler to be executed whenever a "get" request fails
+     *
+     * @param throwable exception
+     */
+    @Override
+    public void onGetFailed(Throwable throwable) {
+        if (throwable instanceof OcException) {
+            OcException ocEx = (OcException) throwable;
+            AlexaIotivityBridgeDemo.msgError(ocEx.toString());
+            ErrorCode errCode = ocEx.getErrorCode();
+            // do something based on errorCode
+            AlexaIotivityBridgeDemo.msgError("Error code: " + errCode);
+        }
+        AlexaIotivityBridgeDemo.msgError("Failed to get representation of a found light resource");
+    }
+
+    /**
+     * The outcome of a light command: how many writes it took and how long until the last one was answered.
+     */
+    public static class CommandResult {
+
+        private final String mUri;
+        private final int mWriteCount;
+        private final long mLatencyMillis;
+
+        CommandResult(String uri, int writeCount, long latencyMillis) {
+            mUri = uri;
+            mWriteCount = writeCount;
+            mLatencyMillis = latencyMillis;
+        }
+
+        public String getUri() {
+            return mUri;
+        }
+
+        public int getWriteCount() {
+            return mWriteCount;
+        }
+
+        public long getLatencyMillis() {
+            return mLatencyMillis;
+        }
+    }
+
+    /**
+     * Set state for a light resource, the light is changed on its own lane. State commands are buffered
+     * per light: commands within the command window, or while a previous write is unanswered, are
+     * collapsed into the latest desired state and sent together.
+     *
+     * @return completes once every write of the command has been answered, or fails with the first
+     *         failure or a TimeoutException if a write is not answered within the command timeout
+     */
+    public CompletableFuture<CommandResult> updateLight(String uri, boolean newState, int newLightLevel) {
+        return updateLight(uri, newState, newLightLevel, false);
+    }
+
+    /**
+     * Set state for a light resource, see {@link #updateLight(String, boolean, int)}
+     *
+     * @param force when set, the state is written even where the device already confirmed it
+     */
+    public CompletableFuture<CommandResult> updateLight(final String uri, final boolean newState, final int newLightLevel,
+                                                        final boolean force) {
+        final CompletableFuture<CommandResult> command = new CompletableFuture<>();
+        if (isCommandRefused(uri, command)) {
+            return command;
+        }
+
+        final PendingCommand pendingCommand = new PendingCommand(command, System.currentTimeMillis());
+        mDeviceExecutor.execute(uri, new Runnable() {
+            @Override
+            public void run() {
+                bufferCommand(uri, newState, newLightLevel, force, pendingCommand);
+            }
+        });
+        return command;
+    }
+
+    /**
+     * Rename a light resource, the light is changed on its own lane
+     *
+     * @return completes once every write of the command has been answered
+     */
+    public CompletableFuture<CommandResult> updateLight(final String uri, final String newName) {
+        return executeCommand(uri, new CommandTask() {
+            @Override
+            public void run(OcResource ocResource, List<CompletableFuture<OcRepresentation>> writes) {
+                putLightRepresentation(ocResource, newName, writes);
+            }
+        });
+    }
+
+    /**
+     * The writes making up a command, run on the lane of the light
+     */
+    interface CommandTask {
+        void run(OcResource ocResource, List<CompletableFuture<OcRepresentation>> writes);
+    }
+
+    /**
+     * Local method to run a command on the lane of a light and complete its future when all its writes are answered
+     */
+    private CompletableFuture<CommandResult> executeCommand(final String uri, final CommandTask commandTask) {
+        final CompletableFuture<CommandResult> command = new CompletableFuture<>();
+        if (isCommandRefused(uri, command)) {
+            return command;
+        }
+
+        final PendingCommand pendingCommand = new PendingCommand(command, System.currentTimeMillis());
+        mDeviceExecutor.execute(uri, new Runnable() {
+            @Override
+            public void run() {
+                OcResource ocResource = getCommandResource(uri);
+                if (ocResource == null) {
+                    command.completeExceptionally(new IllegalArgumentException("No light for uri " + uri));
+                    return;
+                }
+
+                List<CompletableFuture<OcRepresentation>> writes = new ArrayList<>();
+                commandTask.run(ocResource, writes);
+                completeWhenWritten(uri, writes, Collections.singletonList(pendingCommand));
+            }
+        });
+        return command;
+    }
+
+    /**
+     * Local method to fail a command straight away while the bridge is stopping
+     */
+    private boolean isCommandRefused(String uri, CompletableFuture<CommandResult> command) {
+        if (mStopping) {
+            AlexaIotivityBridgeDemo.msgError("Command for light " + uri + " dropped, the bridge is stopping");
+            command.completeExceptionally(new IllegalStateException("The bridge is stopping"));
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return resource of a light which can be sent commands, or null if the light is not (yet) known
+     */
+    private OcResource getCommandResource(String uri) {
+        DeviceRegistry.Entry entry = mDeviceRegistry.getLight(uri);
+        return (entry != null) && (entry.getLightDevice() != null) ? entry.getOcResource() : null;
+    }
+
+    /**
+     * Local method to complete commands once all the writes sent for them are answered
+     *
+     * @return completes when the last write is answered, whether the commands succeeded or not
+     */
+    private CompletableFuture<Void> completeWhenWritten(final String uri, final List<CompletableFuture<OcRepresentation>> writes,
+                                                        final List<PendingCommand> commands) {
+        final CompletableFuture<Void> written = new CompletableFuture<>();
+        CompletableFuture.allOf(writes.toArray(new CompletableFuture<?>[writes.size()])).whenComplete(
+                new BiConsumer<Void, Throwable>() {
+                    @Override
+                    public void accept(Void ignored, Throwable throwable) {
+                        if (throwable != null) {
+                            failCommands(commands, (throwable instanceof CompletionException) ? throwable.getCause() : throwable);
+                        } else {
+                            long now = System.currentTimeMillis();
+                            for (PendingCommand command : commands) {
+                                command.mFuture.complete(new CommandResult(uri, writes.size(), now - command.mStartMillis));
+                            }
+                        }
+                        written.complete(null);
+                    }
+                });
+        return written;
+    }
+
+    private static void failCommands(List<PendingCommand> commands, Throwable throwable) {
+        for (PendingCommand command : commands) {
+            command.mFuture.completeExceptionally(throwable);
+        }
+    }
+
+    /**
+     * A command waiting for its writes to be sent or answered
+     */
+    static class PendingCommand {
+        final CompletableFuture<CommandResult> mFuture;
+        final long mStartMillis;
+
+        PendingCommand(CompletableFuture<CommandResult> future, long startMillis) {
+            mFuture = future;
+            mStartMillis = startMillis;
+        }
+    }
+
+    /**
+     * State commands of a light not sent yet, collapsed into the latest desired state. Only used on the
+     * lane of the light.
+     */
+    static class CommandBuffer {
+        boolean mState;
+        int mLightLevel;
+        boolean mForce; // set if any of the waiting commands was forced
+        List<PendingCommand> mWaiting = new ArrayList<>();
+        boolean mFlushScheduled;
+        boolean mInFlight;
+
+        List<PendingCommand> takeWaiting() {
+            List<PendingCommand> waiting = mWaiting;
+            mWaiting = new ArrayList<>();
+            return waiting;
+        }
+    }
+
+    /**
+     * Local method to add a state command to the command buffer of a light, run on the lane of the light
+     */
+    private void bufferCommand(String uri, boolean newState, int newLightLevel, boolean force, PendingCommand command) {
+        if (getCommandResource(uri) == null) {
+            command.mFuture.completeExceptionally(new IllegalArgumentException("No light for uri " + uri));
+            return;
+        }
+
+        CommandBuffer buffer = mCommandBufferLookup.get(uri);
+        if (buffer == null) {
+            buffer = new CommandBuffer();
+            mCommandBufferLookup.put(uri, buffer);
+        }
+        if (!buffer.mWaiting.isEmpty()) {
+            mCoalescedCommandCount.incrementAndGet();
+        }
+        buffer.mState = newState;
+        buffer.mLightLevel = newLightLevel;
+        buffer.mForce |= force;
+        buffer.mWaiting.add(command);
+        mBufferedCommandCount.incrementAndGet();
+
+        if (buffer.mInFlight || buffer.mFlushScheduled) {
+            // sent when the window ends or the writes in flight are answered
+            return;
+        }
+        if ((mCommandWindowMillis > 0) && (!mStopping)) {
+            try {
+                mTimer.schedule(new CommandFlushTask(uri), mCommandWindowMillis);
+                buffer.mFlushScheduled = true;
+                return;
+
+            } catch (IllegalStateException e) {
+                // the timer was cancelled, the bridge is stopping
+            }
+        }
+        flushCommands(uri);
+    }
+
+    /**
+     * Local method to send the latest desired state of a light unless its previous writes are still
+     * unanswered, run on the lane of the light
+     */
+    private void flushCommands(final String uri) {
+        final CommandBuffer buffer = mCommandBufferLookup.get(uri);
+        if (buffer == null) {
+            return;
+        }
+        buffer.mFlushScheduled = false;
+        if (buffer.mInFlight || buffer.mWaiting.isEmpty()) {
+            return;
+        }
+
+        List<PendingCommand> commands = buffer.takeWaiting();
+        boolean force = buffer.mForce;
+        buffer.mForce = false;
+        OcResource ocResource = getCommandResource(uri);
+        if (ocResource == null) {
+            mBufferedCommandCount.addAndGet(-commands.size());
+            failCommands(commands, new IllegalArgumentException("No light for uri " + uri));
+            return;
+        }
+
+        List<CompletableFuture<OcRepresentation>> writes = new ArrayList<>();
+        putLightRepresentation(ocResource, buffer.mState, buffer.mLightLevel, force, writes);
+        buffer.mInFlight = true;
+        mBufferedCommandCount.addAndGet(-commands.size());
+
+        completeWhenWritten(uri, writes, commands).thenRun(new Runnable() {
+            @Override
+            public void run() {
+                mDeviceExecutor.execute(uri, new Runnable() {
+                    @Override
+                    public void run() {
+                        buffer.mInFlight = false;
+                        if ((mCommandBufferLookup.get(uri) == buffer) && (!buffer.mFlushScheduled)) {
+                            flushCommands(uri);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Local class to send the buffered state of a light when its command window ends
+     */
+    private class CommandFlushTask extends TimerTask {
+
+        private final String mUri;
+
+        CommandFlushTask(String uri) {
+            mUri = uri;
+        }
+
+        @Override
+        public void run() {
+            mDeviceExecutor.execute(mUri, new Runnable() {
+                @Override
+                public void run() {
+                    flushCommands(mUri);
+                }
+            });
+        }
+    }
+
+    public boolean isSuppressNoOpWrites() {
+        return mSuppressNoOpWrites;
+    }
+
+    public void setSuppressNoOpWrites(boolean suppressNoOpWrites) {
+        mSuppressNoOpWrites = suppressNoOpWrites;
+    }
+
+    /**
+     * @return number of writes skipped because the device already confirmed the desired value
+     */
+    public long getSuppressedWriteCount() {
+        return mSuppressedWriteCount.get();
+    }
+
+    public boolean isBatchWrites() {
+        return mBatchWrites;
+    }
+
+    public void setBatchWrites(boolean batchWrites) {
+        mBatchWrites = batchWrites;
+    }
+
+    /**
+     * @return number of light states posted in one request through the batch interface
+     */
+    public long getBatchWriteCount() {
+        return mBatchWriteCount.get();
+    }
+
+    public long getCommandWindowMillis() {
+        return mCommandWindowMillis;
+    }
+
+    public void setCommandWindowMillis(long commandWindowMillis) {
+        mCommandWindowMillis = Math.max(0, commandWindowMillis);
+    }
+
+    /**
+     * @return number of state commands collapsed into a later one instead of being sent on their own
+     */
+    public long getCoalescedCommandCount() {
+        return mCoalescedCommandCount.get();
+    }
+
+    /**
+     * Local method to put a different name for this light resource
+     */
+    private void putLightRepresentation(OcResource ocResource, String newName, List<CompletableFuture<OcRepresentation>> writes) {
+        final String resourceUri = ocResource.getUri();
+
+        DeviceRegistry.Entry entry = mDeviceRegistry.getLight(resourceUri);
+        Light light = (entry != null) ? entry.getLight() : null;
+        if (light != null && resourceUri.startsWith(Light.OCF_OIC_URI_PREFIX_LIGHT)) {
+            if (light.hasLinksProperty()) {
+                final Configuration config = light.getConfiguration();
+                if ((config != null) && (config.isInitialized())) {
+                    boolean changed = !newName.equals(config.getName());
+                    config.setName(newName);
+                    OcRepresentation configRepresentation = null;
+                    try {
+                        configRepresentation = config.getOcRepresentation();
+
+                    } catch (OcException e) {
+                        AlexaIotivityBridgeDemo.msgError("Failed to get OcRepresentation from a configuration -- " + e.toString());
+                    }
+
+                    if (configRepresentation != null) {
+                        Map<String, String> queryParams = new HashMap<>();
+                        try {
+                            // Invoke resource's "put" API with a new representation
+                            OcResource configResource = entry.getOcResource(config.getUri());
+                            if (configResource != null) {
+                                if (changed) {
+                                    expectNotification(configResource.getUri());
+                                }
+                                putRepresentation(configResource, configRepresentation, queryParams, writes);
+                                if (changed) {
+                                    invalidateDeviceInfoWhenWritten(ocResource.getHost(), writes);
+                                }
+
+                            } else {
+                                AlexaIotivityBridgeDemo.msgError("No configuration for light uri " + resourceUri);
+                            }
+
+                        } catch (OcException e) {
+                            AlexaIotivityBridgeDemo.msgError("Error occurred while invoking \"put\" API -- " + e.toString());
+                        }
+                    }
+
+                } else {
+                    if (config == null) {
+                        AlexaIotivityBridgeDemo.msgError("No configuration for light uri " + resourceUri);
+
+                    } else {
+                        AlexaIotivityBridgeDemo.msgError("No configuration (initialized) for light uri " + resourceUri);
+                    }
+                }
+
+            } else {
+                // properties are on the device
+                boolean changed = !newName.equals(light.getName());
+                light.setName(newName);
+
+                OcRepresentation lightRepresentation = null;
+                try {
+                    lightRepresentation = light.getOcRepresentation();
+
+                } catch (OcException e) {
+                    AlexaIotivityBridgeDemo.msgError("Failed to get OcRepresentation from light -- " + e.toString());
+                }
+
+                if (lightRepresentation != null) {
+                    Map<String, String> queryParams = new HashMap<>();
+                    try {
+                        // Invoke resource's "put" API with a new representation
+                        if (changed) {
+                            expectNotification(resourceUri);
+                        }
+                        putRepresentation(ocResource, lightRepresentation, queryParams, writes);
+                        if (changed) {
+                            invalidateDeviceInfoWhenWritten(ocResource.getHost(), writes);
+                        }
+
+                    } catch (OcException e) {
+                        AlexaIotivityBridgeDemo.msgError("Error occurred while invoking \"put\" API -- " + e.toString());
+                    }
+                }
+            }
+
+        } else if (!resourceUri.startsWith(Light.OCF_OIC_URI_PREFIX_LIGHT)) {
+//            AlexaIotivityBridgeDemo.msg("No configuration available for light uri " + resourceUri);
+
+        } else {
+            AlexaIotivityBridgeDemo.msgError("No light for uri " + resourceUri);
+        }
+    }
+
+    /**
+     * Local method to forget the cached device info of a host once the last write has been answered, the device
+     * reports the new name from then on
+     */
+    private void invalidateDeviceInfoWhenWritten(final String hostAddress, List<CompletableFuture<OcRepresentation>> writes) {
+        writes.get(writes.size() - 1).thenRun(new Runnable() {
+            @Override
+            public void run() {
+                invalidateDeviceInfo(hostAddress);
+            }
+        });
+    }
+
+    /**
+     * Local method to put a different state for this light resource
+     */
+    private void putLightRepresentation(OcResource ocResource, boolean newState, int newLightLevel, boolean force,
+                                        List<CompletableFuture<OcRepresentation>> writes) {
+        final String resourceUri = ocResource.getUri();
+
+        DeviceRegistry.Entry entry = mDeviceRegistry.getLight(resourceUri);
+        Light light = (entry != null) ? entry.getLight() : null;
+        if (light != null) {
+            // set new values
+            if (light.hasLinksProperty()) {
+                if (mBatchWrites && postBatchRepresentation(entry, ocResource, newState, newLightLevel, force, writes)) {
+                    return;
+                }
+
+                // actually, set directly on the service (avoid possible conflict if auto discover is running)
+                // light.setState(newState);
+                // light.setLightLevel(newLightLevel);
+
+                final BinarySwitch binarySwitch = light.getBinarySwitch();
+                if ((binarySwitch != null) && (binarySwitch.isInitialized())) {
+                    boolean changed = (binarySwitch.getValue() != newState);
+                    binarySwitch.setValue(newState);
+                    OcRepresentation binarySwitchRepresentation = null;
+                    try {
+                        binarySwitchRepresentation = binarySwitch.getOcRepresentation();
+
+                    } catch (OcException e) {
+                        AlexaIotivityBridgeDemo.msgError("Failed to get OcRepresentation from a binary switch -- " + e.toString());
+                    }
+
+                    if (binarySwitchRepresentation != null) {
+                        Map<String, String> queryParams = new HashMap<>();
+                        try {
+                            // Invoke resource's "put" (or "post") API with a new representation
+                            OcResource binarySwitchResource = entry.getOcResource(binarySwitch.getUri());
+                            if (binarySwitchResource != null) {
+                                if (changed) {
+                                    expectNotification(binarySwitchResource.getUri());
+                                }
+                                if (isNoOpWrite(binarySwitchResource.getUri(), changed, force)) {
+                                    mSuppressedWriteCount.incrementAndGet();
+                                } else if (binarySwitchResource.getUri().startsWith(BinarySwitch.UPNP_OIC_URI_PREFIX_BINARY_SWITCH)) {
+                                    // upnp bridge requires 'post'
+                                    postRepresentation(binarySwitchResource, binarySwitchRepresentation, queryParams, writes);
+                                } else {
+                                    putRepresentation(binarySwitchResource, binarySwitchRepresentation, queryParams, writes);
+                                }
+
+                            } else {
+                                AlexaIotivityBridgeDemo.msgError("No binary switch for light uri " + resourceUri);
+                            }
+
+                        } catch (OcException e) {
+                            AlexaIotivityBridgeDemo.msgError("Error occurred while invoking \"put\" API -- " + e.toString());
+                        }
+                    }
+
+                } else {
+                    if (binarySwitch == null) {
+                        AlexaIotivityBridgeDemo.msgError("No binary switch for light uri " + resourceUri);
+
+                    } else {
+                        AlexaIotivityBridgeDemo.msgError("No binary switch (initialized) for light uri " + resourceUri);
+                    }
+                }
+
+                Brightness brightness = light.getBrightness();
+                if ((brightness != null) && (brightness.isInitialized())) {
+                    boolean changed = (brightness.getBrightness() != newLightLevel);
+                    brightness.setBrightness(newLightLevel);
+                    OcRepresentation brightnessRepresentation = null;
+                    try {
+                        brightnessRepresentation = brightness.getOcRepresentation();
+
+                    } catch (OcException e) {
+                        AlexaIotivityBridgeDemo.msgError("Failed to get OcRepresentation from a brightness -- " + e.toString());
+                    }
+
+                    if (brightnessRepresentation != null) {
+                        Map<String, String> queryParams = new HashMap<>();
+                        try {
+                            // Invoke resource's "put" (or "post") API with a new representation
+                            OcResource brightnessResource = entry.getOcResource(brightness.getUri());
+                            if (brightnessResource != null) {
+                                if (changed) {
+                                    expectNotification(brightnessResource.getUri());
+                                }
+                                if (isNoOpWrite(brightnessResource.getUri(), changed, force)) {
+                                    mSuppressedWriteCount.incrementAndGet();
+                                } else if (brightnessResource.getUri().startsWith(Brightness.UPNP_OIC_URI_PREFIX_BRIGHTNESS)) {
+                                    // upnp bridge requires 'post'
+                                    postRepresentation(brightnessResource, brightnessRepresentation, queryParams, writes);
+                                } else {
+                                    putRepresentation(brightnessResource, brightnessRepresentation, queryParams, writes);
+                                }
+
+                            } else {
+                                AlexaIotivityBridgeDemo.msgError("No brightness for light uri " + resourceUri);
+                            }
+
+                        } catch (OcException e) {
+                            AlexaIotivityBridgeDemo.msgError("Error occurred while invoking \"put\" API -- " + e.toString());
+                        }
+                    }
+
+                } else {
+                    if (brightness == null) {
+                        AlexaIotivityBridgeDemo.msgError("No brightness for light uri " + resourceUri);
+
+                    } else {
+                        AlexaIotivityBridgeDemo.msgError("No brightness (initialized) for light uri " + resourceUri);
+                    }
+                }
+
+            } else {
+                // properties are on the device
+                boolean changed = (light.getState() != newState) || (light.getLightLevel() != newLightLevel);
+                light.setState(newState);
+                light.setLightLevel(newLightLevel);
 
                 OcRepresentation lightRepresentation = null;
                 try {
-                    lightRepresentation = light.getOcRepresentation();
+                    lightRepresentation = light.getOcRepresentation();
+
+                } catch (OcException e) {
+                    AlexaIotivityBridgeDemo.msgError("Failed to get OcRepresentation from light -- " + e.toString());
+                }
+
+                if (lightRepresentation != null) {
+                    Map<String, String> queryParams = new HashMap<>();
+                    try {
+                        // Invoke resource's "put" API with a new representation
+                        if (changed) {
+                            expectNotification(resourceUri);
+                        }
+                        if (isNoOpWrite(resourceUri, changed, force)) {
+                            mSuppressedWriteCount.incrementAndGet();
+                        } else {
+                            putRepresentation(ocResource, lightRepresentation, queryParams, writes);
+                        }
+
+                    } catch (OcException e) {
+                        AlexaIotivityBridgeDemo.msgError("Error occurred while invoking \"put\" API -- " + e.toString());
+                    }
+                }
+            }
+
+        } else {
+            AlexaIotivityBridgeDemo.msgError("No light for uri " + resourceUri);
+        }
+    }
+
+    /**
+     * Local method to post the state of a linked light in one request to the light collection, through the
+     * batch interface. The representation holds one child per linked resource.
+     *
+     * @return false if the light does not take batch writes or the batch could not be built, its linked resources
+     *         are then written one by one
+     */
+    private boolean postBatchRepresentation(DeviceRegistry.Entry entry, OcResource ocResource, boolean newState, int newLightLevel,
+                                            boolean force, List<CompletableFuture<OcRepresentation>> writes) {
+        final String resourceUri = ocResource.getUri();
+        List<String> resourceInterfaces = ocResource.getResourceInterfaces();
+        if ((resourceInterfaces == null) || (!resourceInterfaces.contains(OcPlatform.BATCH_INTERFACE))
+                || mBatchRefusedUris.contains(resourceUri)) {
+            return false;
+        }
+
+        Light light = entry.getLight();
+        BinarySwitch binarySwitch = light.getBinarySwitch();
+        Brightness brightness = light.getBrightness();
+        if ((binarySwitch == null) || (!binarySwitch.isInitialized()) || (brightness == null) || (!brightness.isInitialized())) {
+            return false;
+        }
+        OcResource binarySwitchResource = entry.getOcResource(binarySwitch.getUri());
+        OcResource brightnessResource = entry.getOcResource(brightness.getUri());
+        if ((binarySwitchResource == null) || (brightnessResource == null)) {
+            return false;
+        }
+
+        boolean binarySwitchChanged = (binarySwitch.getValue() != newState);
+        boolean brightnessChanged = (brightness.getBrightness() != newLightLevel);
+        if (isNoOpWrite(binarySwitchResource.getUri(), binarySwitchChanged, force)
+                && isNoOpWrite(brightnessResource.getUri(), brightnessChanged, force)) {
+            mSuppressedWriteCount.incrementAndGet();
+            return true;
+        }
+        // the services keep their values until the post has been sent
+        OcRepresentation batchRepresentation = new OcRepresentation();
+        try {
+            OcRepresentation binarySwitchRepresentation = binarySwitch.getOcRepresentation();
+            binarySwitchRepresentation.setValue(BinarySwitch.VALUE_KEY, newState);
+            OcRepresentation brightnessRepresentation = brightness.getOcRepresentation();
+            brightnessRepresentation.setValue(Brightness.BRIGHTNESS_KEY, newLightLevel);
+            batchRepresentation.setUri(resourceUri);
+            batchRepresentation.addChild(binarySwitchRepresentation);
+            batchRepresentation.addChild(brightnessRepresentation);
+
+        } catch (OcException e) {
+            AlexaIotivityBridgeDemo.msgError("Failed to get OcRepresentation for a batch write -- " + e.toString());
+            return false;
+        }
+
+        // the batch write is tracked under the collection, the values it carries are not confirmed until answered
+        mUnconfirmedUris.add(binarySwitchResource.getUri());
+        mUnconfirmedUris.add(brightnessResource.getUri());
+        Map<String, String> queryParams = new HashMap<>();
+        try {
+            // Invoke the collection's "post" API on the batch interface
+            postRepresentation(ocResource, OcPlatform.BATCH_INTERFACE, batchRepresentation, queryParams, writes);
+            mBatchWriteCount.incrementAndGet();
+
+        } catch (OcException e) {
+            // the failed write is in writes, so the command fails, and the services keep the values last known
+            AlexaIotivityBridgeDemo.msgError("Error occurred while invoking \"post\" API -- " + e.toString());
+            return true;
+        }
+        binarySwitch.setValue(newState);
+        brightness.setBrightness(newLightLevel);
+        if (binarySwitchChanged) {
+            expectNotification(binarySwitchResource.getUri());
+        }
+        if (brightnessChanged) {
+            expectNotification(brightnessResource.getUri());
+        }
+
+        // a light answering with an error is written link by link from now on
+        writes.get(writes.size() - 1).whenComplete(new BiConsumer<OcRepresentation, Throwable>() {
+            @Override
+            public void accept(OcRepresentation ocRepresentation, Throwable throwable) {
+                if ((throwable != null) && (!(throwable instanceof TimeoutException))
+                        && mDeviceRegistry.containsLight(resourceUri) && mBatchRefusedUris.add(resourceUri)) {
+                    AlexaIotivityBridgeDemo.msgError("Batch write to light " + resourceUri
+                            + " failed, writing its links one by one -- " + throwable.toString());
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * @return true if a write of an unchanged value can be skipped: the device confirmed the value, no write
+     *         to the resource or to its light (a batch write) is pending and the write is not forced
+     */
+    private boolean isNoOpWrite(String resourceUri, boolean changed, boolean force) {
+        if (changed || force || (!mSuppressNoOpWrites) || mUnconfirmedUris.contains(resourceUri)) {
+            return false;
+        }
+        String lightUri = getParentLightUri(resourceUri);
+        synchronized (mPendingWriteCountLookup) {
+            return (!mPendingWriteCountLookup.containsKey(resourceUri)) && (!mPendingWriteCountLookup.containsKey(lightUri));
+        }
+    }
+
+    /**
+     * Local method to invoke "put" on a resource, the request is tracked until it is answered or times out
+     *
+     * @param writes the future of the request is added to these, also when sending fails
+     */
+    private void putRepresentation(OcResource ocResource, OcRepresentation ocRepresentation, Map<String, String> queryParams,
+                                   List<CompletableFuture<OcRepresentation>> writes) throws OcException {
+        WriteListener listener = startWrite(ocResource.getUri(), writes);
+        try {
+            ocResource.put(ocRepresentation, queryParams, listener);
+
+        } catch (OcException e) {
+            listener.fail(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Local method to invoke "post" on a resource, the request is tracked until it is answered or times out
+     *
+     * @param writes the future of the request is added to these, also when sending fails
+     */
+    private void postRepresentation(OcResource ocResource, OcRepresentation ocRepresentation, Map<String, String> queryParams,
+                                    List<CompletableFuture<OcRepresentation>> writes) throws OcException {
+        WriteListener listener = startWrite(ocResource.getUri(), writes);
+        try {
+            ocResource.post(ocRepresentation, queryParams, listener);
+
+        } catch (OcException e) {
+            listener.fail(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Local method to invoke "post" on an interface of a resource, the request is tracked until it is answered or times out
+     *
+     * @param writes the future of the request is added to these, also when sending fails
+     */
+    private void postRepresentation(OcResource ocResource, String resourceInterface, OcRepresentation ocRepresentation,
+                                    Map<String, String> queryParams, List<CompletableFuture<OcRepresentation>> writes)
+            throws OcException {
+        WriteListener listener = startWrite(ocResource.getUri(), writes);
+        try {
+            ocResource.post("", resourceInterface, ocRepresentation, queryParams, listener);
+
+        } catch (OcException e) {
+            listener.fail(e);
+            throw e;
+        }
+    }
+
+    private WriteListener startWrite(String resourceUri, List<CompletableFuture<OcRepresentation>> writes) {
+        long now = System.currentTimeMillis();
+        WriteListener listener = new WriteListener(mNextWriteId.incrementAndGet(), resourceUri, now + mCommandTimeoutMillis);
+        // the cached value is the one written, not yet confirmed by the device
+        mUnconfirmedUris.add(resourceUri);
+        synchronized (mPendingWriteCountLookup) {
+            Integer count = mPendingWriteCountLookup.get(resourceUri);
+            mPendingWriteCountLookup.put(resourceUri, (count != null) ? count + 1 : 1);
+        }
+        mPendingWriteLookup.put(listener.mWriteId, listener);
+        writes.add(listener.mFuture);
+        return listener;
+    }
+
+    /**
+     * Local method to take a write off the pending writes, once only even if it is both answered and timed out
+     */
+    private void endWrite(WriteListener listener) {
+        if (mPendingWriteLookup.remove(listener.mWriteId) == null) {
+            return;
+        }
+        synchronized (mPendingWriteCountLookup) {
+            Integer count = mPendingWriteCountLookup.get(listener.mResourceUri);
+            if ((count == null) || (count <= 1)) {
+                mPendingWriteCountLookup.remove(listener.mResourceUri);
+            } else {
+                mPendingWriteCountLookup.put(listener.mResourceUri, count - 1);
+            }
+        }
+    }
+
+    /**
+     * Listener for a single "put" or "post", completes the future of the write and is removed from
+     * the pending writes when answered, failed or timed out.
+     */
+    class WriteListener implements OcResource.OnPutListener, OcResource.OnPostListener {
+
+        private final long mWriteId;
+        private final String mResourceUri;
+        private final long mDeadlineMillis;
+        private final CompletableFuture<OcRepresentation> mFuture = new CompletableFuture<>();
+
+        WriteListener(long writeId, String resourceUri, long deadlineMillis) {
+            mWriteId = writeId;
+            mResourceUri = resourceUri;
+            mDeadlineMillis = deadlineMillis;
+        }
+
+        @Override
+        public void onPutCompleted(List<OcHeaderOption> list, OcRepresentation ocRepresentation) {
+            // a late answer still carries the state of the resource
+            IotivityClient.this.onPutCompleted(list, ocRepresentation);
+            complete(ocRepresentation);
+        }
+
+        @Override
+        public void onPutFailed(Throwable throwable) {
+            AlexaIotivityBridgeDemo.msgError("Put to uri " + mResourceUri + " failed");
+            IotivityClient.this.onPutFailed(throwable);
+            fail(throwable);
+        }
+
+        @Override
+        public void onPostCompleted(List<OcHeaderOption> list, OcRepresentation ocRepresentation) {
+            IotivityClient.this.onPostCompleted(list, ocRepresentation);
+            complete(ocRepresentation);
+        }
+
+        @Override
+        public void onPostFailed(Throwable throwable) {
+            AlexaIotivityBridgeDemo.msgError("Post to uri " + mResourceUri + " failed");
+            IotivityClient.this.onPostFailed(throwable);
+            fail(throwable);
+        }
+
+        private void complete(OcRepresentation ocRepresentation) {
+            endWrite(this);
+            mFuture.complete(ocRepresentation);
+        }
+
+        void fail(Throwable throwable) {
+            endWrite(this);
+            mFuture.completeExceptionally(throwable);
+        }
+    }
+
+    /**
+     * Timer task which fails the writes not answered within the command timeout
+     */
+    class WriteTimeoutTask extends TimerTask {
+        @Override
+        public void run() {
+            long now = System.currentTimeMillis();
+            for (WriteListener listener : mPendingWriteLookup.values()) {
+                if (listener.mDeadlineMillis <= now) {
+                    AlexaIotivityBridgeDemo.msgError("No answer to a write to uri " + listener.mResourceUri);
+                    mTimedOutWriteCount.incrementAndGet();
+                    listener.fail(new TimeoutException("No answer from " + listener.mResourceUri
+                            + " within " + mCommandTimeoutMillis + " ms"));
+                }
+            }
+        }
+    }
+
+    public long getCommandTimeoutMillis() {
+        return mCommandTimeoutMillis;
+    }
+
+    public void setCommandTimeoutMillis(long commandTimeoutMillis) {
+        mCommandTimeoutMillis = Math.max(1, commandTimeoutMillis);
+    }
+
+    /**
+     * @return number of writes sent and not yet answered
+     */
+    public int getPendingWriteCount() {
+        return mPendingWriteLookup.size();
+    }
+
+    public long getTimedOutWriteCount() {
+        return mTimedOutWriteCount.get();
+    }
+
+    /**
+     * An event handler to be executed whenever a "put" request completes successfully
+     *
+     * @param list             list of the header options
+     * @param ocRepresentation representation of a resource
+     */
+    @Override
+    public void onPutCompleted(final List<OcHeaderOption> list, final OcRepresentation ocRepresentation) {
+        mDeviceExecutor.execute(getLaneKey(ocRepresentation.getUri()), new Runnable() {
+            @Override
+            public void run() {
+                handlePutCompleted(list, ocRepresentation);
+            }
+        });
+    }
+
+    private void handlePutCompleted(List<OcHeaderOption> list, OcRepresentation ocRepresentation) {
+
+        try {
+            // Read attribute values into local representation of resource
+            final String ocRepUri = ocRepresentation.getUri();
+            if (ocRepUri != null && !ocRepUri.isEmpty()) {
+//                AlexaIotivityBridgeDemo.msg("Put Resource URI: " + ocRepUri);
+
+                Resource resource = mDeviceRegistry.getResource(ocRepUri);
+                if (resource != null) {
+                    resource.setOcRepresentation(ocRepresentation);
+                    mUnconfirmedUris.remove(ocRepUri);
+                    AlexaIotivityBridgeDemo.msg("Put Resource attributes: " + resource.toString());
+
+                } else {
+                    AlexaIotivityBridgeDemo.msgError("Put No resource for uri " + ocRepUri);
+                }
+
+            } else {
+                AlexaIotivityBridgeDemo.msgError("Put No Resource URI");
+            }
+
+        } catch (OcException e) {
+            AlexaIotivityBridgeDemo.msgError("Put Failed to create resource representation -- " + e.toString());
+        }
+    }
+
+    /**
+     * An event handler to be executed whenever a "put" request fails
+     *
+     * @param throwable exception
+     */
+    @Override
+    public void onPutFailed(Throwable throwable) {
+        if (throwable instanceof OcException) {
+            OcException ocEx = (OcException) throwable;
+            AlexaIotivityBridgeDemo.msgError(ocEx.toString());
+            ErrorCode errCode = ocEx.getErrorCode();
+            // do something based on errorCode
+            AlexaIotivityBridgeDemo.msgError("Error code: " + errCode);
+        }
+        AlexaIotivityBridgeDemo.msgError("Failed to \"put\" a new representation");
+    }
+
+    /**
+     * An event handler to be executed whenever a "post" request completes successfully
+     *
+     * @param list             list of the header options
+     * @param ocRepresentation representation of a resource
+     */
+    @Override
+    public void onPostCompleted(final List<OcHeaderOption> list, final OcRepresentation ocRepresentation) {
+        mDeviceExecutor.execute(getLaneKey(ocRepresentation.getUri()), new Runnable() {
+            @Override
+            public void run() {
+                handlePostCompleted(list, ocRepresentation);
+            }
+        });
+    }
+
+    private void handlePostCompleted(List<OcHeaderOption> list, OcRepresentation ocRepresentation) {
+
+        try {
+            // Read attribute values into local representation of resource
+            final String ocRepUri = ocRepresentation.getUri();
+            if (ocRepUri != null && !ocRepUri.isEmpty()) {
+//                AlexaIotivityBridgeDemo.msg("Post Resource URI: " + ocRepUri);
+
+                Resource resource = mDeviceRegistry.getResource(ocRepUri);
+                if (resource != null) {
+                    resource.setOcRepresentation(ocRepresentation);
+                    mUnconfirmedUris.remove(ocRepUri);
+                    AlexaIotivityBridgeDemo.msg("Post Resource attributes: " + resource.toString());
+
+                } else {
+                    AlexaIotivityBridgeDemo.msgError("Post No resource for uri " + ocRepUri);
+                }
+
+                // a batch write is answered with the representation of each linked resource
+                List<OcRepresentation> children = ocRepresentation.getChildren();
+                if (children != null) {
+                    for (OcRepresentation child : children) {
+                        Resource childResource = (child.getUri() != null) ? mDeviceRegistry.getResource(child.getUri()) : null;
+                        if (childResource != null) {
+                            childResource.setOcRepresentation(child);
+                            mUnconfirmedUris.remove(child.getUri());
+                            AlexaIotivityBridgeDemo.msg("Post Resource attributes: " + childResource.toString());
+                        }
+                    }
+                }
+
+            } else {
+                AlexaIotivityBridgeDemo.msgError("Post No Resource URI");
+            }
+
+        } catch (OcException e) {
+            AlexaIotivityBridgeDemo.msgError("Post Failed to create resource representation -- " + e.toString());
+        }
+    }
+
+    /**
+     * An event handler to be executed whenever a "post" request fails
+     *
+     * @param throwable exception
+     */
+    @Override
+    public void onPostFailed(Throwable throwable) {
+        if (throwable instanceof OcException) {
+            OcException ocEx = (OcException) throwable;
+            AlexaIotivityBridgeDemo.msgError(ocEx.toString());
+            ErrorCode errCode = ocEx.getErrorCode();
+            // do something based on errorCode
+            AlexaIotivityBridgeDemo.msgError("Error code: " + errCode);
+        }
+        AlexaIotivityBridgeDemo.msgError("Failed to \"post\" a new representation");
+    }
+
+    /**
+     * Local method to start observing this resource
+     *
+     * @param ocResource found resource
+     */
+    private void observeFoundResource(OcResource ocResource) {
+        final String resourceUri = ocResource.getUri();
+        if (mStopping) {
+            // observations are being cancelled
+            return;
+        }
+        try {
+            // Invoke resource's "observe" API with a observe type
+            mObservedResourceUris.add(resourceUri);
+            ocResource.observe(ObserveType.OBSERVE, new HashMap<String, String>(), new ObserveListener(resourceUri));
+
+        } catch (OcException e) {
+            mObservedResourceUris.remove(resourceUri);
+            AlexaIotivityBridgeDemo.msgError("Error occurred while invoking \"observe\" API -- " + e.toString());
+        }
+    }
+
+    /**
+     * Observe listener for a single resource, so that a failed observation can be restarted.
+     */
+    class ObserveListener implements OcResource.OnObserveListener {
+
+        private String mResourceUri;
+        private int mLastSequenceNumber = -1;
+        private long mLastSequenceMillis;
+
+        ObserveListener(String resourceUri) {
+            mResourceUri = resourceUri;
+        }
+
+        @Override
+        public void onObserveCompleted(final List<OcHeaderOption> list, final OcRepresentation ocRepresentation,
+                                       final int sequenceNumber) {
+            if (!acceptSequenceNumber(sequenceNumber)) {
+                return;
+            }
+            if ((sequenceNumber > 0) && (sequenceNumber <= OcResource.OnObserveListener.MAX_SEQUENCE_NUMBER)) {
+                // the answer to a registration does not prove that the device notifies. Noted before the hand off,
+                // the device is alive even if the notification is dropped from a busy lane.
+                observeAlive(mResourceUri);
+            }
+            mDeviceExecutor.executeNotification(getLaneKey(mResourceUri), mResourceUri, new Runnable() {
+                @Override
+                public void run() {
+                    IotivityClient.this.onObserveCompleted(list, ocRepresentation, sequenceNumber);
+                }
+            });
+        }
+
+        /**
+         * @return false for a notification which duplicates or is older than the last one applied
+         */
+        private synchronized boolean acceptSequenceNumber(int sequenceNumber) {
+            if ((sequenceNumber <= 0) || (sequenceNumber > OcResource.OnObserveListener.MAX_SEQUENCE_NUMBER)) {
+                // registration or no sequence number, nothing to order by
+                return true;
+            }
+
+            long now = System.currentTimeMillis();
+            if ((mLastSequenceNumber >= 0) && (now - mLastSequenceMillis < OBSERVE_SEQUENCE_FRESHNESS_MILLIS)) {
+                if (sequenceNumber == mLastSequenceNumber) {
+                    mObserveDuplicateCount.incrementAndGet();
+                    return false;
+                }
+                // newer if ahead by less than half the sequence space, taking wraparound into account
+                boolean newer = ((mLastSequenceNumber < sequenceNumber) && (sequenceNumber - mLastSequenceNumber < OBSERVE_SEQUENCE_HALF_RANGE))
+                        || ((mLastSequenceNumber > sequenceNumber) && (mLastSequenceNumber - sequenceNumber > OBSERVE_SEQUENCE_HALF_RANGE));
+                if (!newer) {
+                    mObserveOutOfOrderCount.incrementAndGet();
+                    return false;
+                }
+            }
+
+            mLastSequenceNumber = sequenceNumber;
+            mLastSequenceMillis = now;
+            return true;
+        }
+
+        @Override
+        public void onObserveFailed(Throwable throwable) {
+            AlexaIotivityBridgeDemo.msgError("Observe failed for uri " + mResourceUri);
+            mDeviceExecutor.execute(getLaneKey(mResourceUri), new Runnable() {
+                @Override
+                public void run() {
+                    // poll the light until observe can be retried
+                    mObservedResourceUris.remove(mResourceUri);
+                    observeDead(mResourceUri);
+                }
+            });
+            IotivityClient.this.onObserveFailed(throwable);
+        }
+    }
+
+    /**
+     * An event handler to be executed whenever a "observe" request completes successfully
+     *
+     * @param list             list of the header options
+     * @param ocRepresentation representation of a resource
+     * @param sequenceNumber   sequence number
+     */
+    @Override
+    public void onObserveCompleted(List<OcHeaderOption> list, OcRepresentation ocRepresentation, int sequenceNumber) {
+//        if (OcResource.OnObserveListener.REGISTER == sequenceNumber) {
+//            AlexaIotivityBridgeDemo.msg("Observe registration action is successful");
+//        } else {
+//            AlexaIotivityBridgeDemo.msg("Observe sequence number " + sequenceNumber);
+//        }
+
+        if ((sequenceNumber > 0) && (sequenceNumber < (OcResource.OnObserveListener.MAX_SEQUENCE_NUMBER + 1))) {
+            handleGetCompleted(list, ocRepresentation);
+        }
+    }
+
+    /**
+     * An event handler to be executed whenever a "observe" request fails
+     *
+     * @param throwable exception
+     */
+    @Override
+    public void onObserveFailed(Throwable throwable) {
+        if (throwable instanceof OcException) {
+            OcException ocEx = (OcException) throwable;
+            AlexaIotivityBridgeDemo.msgError(ocEx.toString());
+            ErrorCode errCode = ocEx.getErrorCode();
+            // do something based on errorCode
+            AlexaIotivityBridgeDemo.msgError("Error code: " + errCode);
+        }
+        AlexaIotivityBridgeDemo.msgError("Observation of the found light resource has failed");
+    }
+
+    /**
+     * Runs new lights through a sequential workflow, on a virtual thread each when the JDK has them
+     *
+     * @param stepTimeoutMillis timeout of each request in the workflow
+     */
+    public void enableWorkflowMode(long stepTimeoutMillis) {
+        mWorkflowStepTimeoutMillis = stepTimeoutMillis;
+        mWorkflowExecutor = IotivityFutures.newWorkflowExecutor();
+    }
+
+    public boolean isWorkflowMode() {
+        return mWorkflowExecutor != null;
+    }
+
+    private void startLightWorkflow(final OcResource ocResource) {
+        if (!mWorkflowUris.add(ocResource.getUri())) {
+            // already being set up
+            refreshKnownLight(ocResource.getUri());
+            return;
+        }
+        mWorkflowExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    runLightWorkflow(ocResource);
+
+                } finally {
+                    mWorkflowUris.remove(ocResource.getUri());
+                }
+            }
+        });
+    }
+
+    /**
+     * The setup of a new light as sequential blocking code: get the light, resolve and get its links,
+     * name it and start observing. Results are applied on the lane of the light, and a light whose
+     * first get fails is set up again on the next discovery.
+     */
+    private void runLightWorkflow(OcResource ocResource) {
+        final String uri = ocResource.getUri();
+        final String host = ocResource.getHost();
+        long startMillis = System.currentTimeMillis();
+        String step = "get " + uri;
+        try {
+            applyRepresentation(IotivityFutures.await(IotivityFutures.get(ocResource), mWorkflowStepTimeoutMillis));
+
+            Resource resource = mDeviceRegistry.getResource(uri);
+            if (resource instanceof Device) {
+                for (Link link : ((Device) resource).getLinks().getLinks()) {
+                    String href = link.getHref();
+                    String rt = getFirstResourceType(link);
+                    if (href.equals("/oic/d") || (rt == null) || (mDeviceRegistry.get(href) != null)) {
+                        continue;
+                    }
+                    step = "resolve " + href;
+                    try {
+                        resolveLink(uri, host, href, rt);
+
+                    } catch (TimeoutException | ExecutionException e) {
+                        // the next get of the light resolves it the usual way
+                        AlexaIotivityBridgeDemo.msgError("Workflow of light " + uri + " failed to " + step + " -- " + e.toString());
+                    }
+                }
+            }
 
-                } catch (OcException e) {
-                    AlexaIotivityBridgeDemo.msgError("Failed to get OcRepresentation from light -- " + e.toString());
+            // For OCF devices, the name is the 'n' property of the device
+            if (uri.startsWith(Light.OCF_OIC_URI_PREFIX_LIGHT) || uri.startsWith(Light.OIC_URI_PREFIX_LIGHT)) {
+                step = "get device info of " + host;
+                DeviceInfo deviceInfo = mDeviceInfoLookup.get(host);
+                String name;
+                if ((deviceInfo != null) && (System.currentTimeMillis() - deviceInfo.mFetchedMillis < mDeviceInfoTtlMillis)) {
+                    name = deviceInfo.mName;
+                } else {
+                    OcRepresentation deviceRepresentation = IotivityFutures.await(IotivityFutures.getDeviceInfo(host), mWorkflowStepTimeoutMillis);
+                    name = deviceRepresentation.hasAttribute("n") ? (String) deviceRepresentation.getValue("n") : null;
+                    if (name != null) {
+                        mDeviceInfoLookup.put(host, new DeviceInfo(name, System.currentTimeMillis()));
+                    }
+                }
+                final String deviceName = name;
+                if (deviceName != null) {
+                    runOnLane(uri, new Runnable() {
+                        @Override
+                        public void run() {
+                            DeviceRegistry.Entry entry = mDeviceRegistry.getLight(uri);
+                            if (entry != null) {
+                                entry.getLight().setName(deviceName);
+                            }
+                        }
+                    });
                 }
+            }
 
-                if (lightRepresentation != null) {
-                    Map<String, String> queryParams = new HashMap<>();
-                    try {
-                        // Invoke resource's "put" API with a new representation
-                        ocResource.put(lightRepresentation, queryParams, this);
+            step = "observe " + uri;
+            runOnLane(uri, new Runnable() {
+                @Override
+                public void run() {
+                    DeviceRegistry.Entry entry = mDeviceRegistry.getLight(uri);
+                    if (entry == null) {
+                        return;
+                    }
+                    if (entry.getOcResource() != null) {
+                        observeFoundResource(entry.getOcResource());
+                    }
+                    for (OcResource linkResource : entry.getLinkResources()) {
+                        observeFoundResource(linkResource);
+                    }
+                }
+            });
 
-                    } catch (OcException e) {
-                        AlexaIotivityBridgeDemo.msgError("Error occurred while invoking \"put\" API -- " + e.toString());
+            AlexaIotivityBridgeDemo.msg("Workflow of light " + uri + " done in " + (System.currentTimeMillis() - startMillis) + " ms");
+
+        } catch (TimeoutException e) {
+            AlexaIotivityBridgeDemo.msgError("Workflow of light " + uri + " timed out at step: " + step);
+
+        } catch (ExecutionException | OcException e) {
+            AlexaIotivityBridgeDemo.msgError("Workflow of light " + uri + " failed at step: " + step + " -- " + e.toString());
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Workflow step, finds a linked resource with a unicast query to the host of the light and gets it
+     */
+    private void resolveLink(final String parentUri, String host, String href, String rt)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        String requestUri = OcPlatform.WELL_KNOWN_QUERY + "?rt=" + rt;
+        OcResource[] ocResources = IotivityFutures.await(IotivityFutures.findResources(host, requestUri), mWorkflowStepTimeoutMillis);
+        for (final OcResource linkResource : ocResources) {
+            if ((linkResource != null) && linkResource.getUri().equalsIgnoreCase(href)) {
+                final boolean[] tracked = new boolean[1];
+                runOnLane(parentUri, new Runnable() {
+                    @Override
+                    public void run() {
+                        tracked[0] = (registerLink(linkResource, parentUri) != null);
                     }
+                });
+                if (tracked[0]) {
+                    applyRepresentation(IotivityFutures.await(IotivityFutures.get(linkResource), mWorkflowStepTimeoutMillis));
                 }
+                return;
             }
+        }
+        AlexaIotivityBridgeDemo.msgError("Link " + href + " not found on host " + host);
+    }
 
-        } else if (!resourceUri.startsWith(Light.OCF_OIC_URI_PREFIX_LIGHT)) {
-//            AlexaIotivityBridgeDemo.msg("No configuration available for light uri " + resourceUri);
+    /**
+     * Workflow step, handles a representation on the lane of its light like a get response
+     */
+    private void applyRepresentation(final OcRepresentation ocRepresentation)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        runOnLane(getLaneKey(ocRepresentation.getUri()), new Runnable() {
+            @Override
+            public void run() {
+                handleGetCompleted(null, ocRepresentation);
+            }
+        });
+    }
 
-        } else {
-            AlexaIotivityBridgeDemo.msgError("No light for uri " + resourceUri);
+    /**
+     * Runs a task on a lane and waits for it, so that a workflow stays in order with the callbacks of the light
+     */
+    private void runOnLane(String key, final Runnable task) throws InterruptedException, ExecutionException, TimeoutException {
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        mDeviceExecutor.execute(key, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                    future.complete(null);
+
+                } catch (RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            }
+        });
+        IotivityFutures.await(future, mWorkflowStepTimeoutMillis);
+    }
+
+    /**
+     * Observe health of a light. A light whose observation failed, or stayed silent after a write
+     * which changed it, is polled with GET until a retried observation delivers a notification.
+     */
+    static class ObserveHealth {
+        boolean mPolled;
+        int mFailures;
+        long mNextPollMillis;
+        long mNextObserveRetryMillis;
+    }
+
+    /**
+     * A light due to be polled, ordered by how long it is overdue
+     */
+    static class DuePoll implements Comparable<DuePoll> {
+        final String mLightUri;
+        final ObserveHealth mHealth;
+        final long mDueMillis;
+
+        DuePoll(String lightUri, ObserveHealth health, long dueMillis) {
+            mLightUri = lightUri;
+            mHealth = health;
+            mDueMillis = dueMillis;
+        }
+
+        @Override
+        public int compareTo(DuePoll other) {
+            return Long.compare(mDueMillis, other.mDueMillis);
         }
     }
 
     /**
-     * Local method to put a different state for this light resource
+     * @return key of the callback lane for a resource, the uri of the light it belongs to
      */
-    private void putLightRepresentation(OcResource ocResource, boolean newState, int newLightLevel) {
-        final String resourceUri = ocResource.getUri();
+    private String getLaneKey(String resourceUri) {
+        return (resourceUri != null) ? getParentLightUri(resourceUri) : "";
+    }
 
-        Light light = (Light) mResourceLookup.get(resourceUri);
-        if (light != null) {
-            // set new values
-            if (light.hasLinksProperty()) {
-                // actually, set directly on the service (avoid possible conflict if auto discover is running)
-                // light.setState(newState);
-                // light.setLightLevel(newLightLevel);
+    private String getParentLightUri(String resourceUri) {
+        DeviceRegistry.Entry entry = mDeviceRegistry.get(resourceUri);
+        return (entry != null) ? entry.getUri() : resourceUri;
+    }
 
-                final BinarySwitch binarySwitch = light.getBinarySwitch();
-                if ((binarySwitch != null) && (binarySwitch.isInitialized())) {
-                    binarySwitch.setValue(newState);
-                    OcRepresentation binarySwitchRepresentation = null;
-                    try {
-                        binarySwitchRepresentation = binarySwitch.getOcRepresentation();
+    private boolean isPolled(String lightUri) {
+        ObserveHealth health = mObserveHealthLookup.get(lightUri);
+        return (health != null) && health.mPolled;
+    }
 
-                    } catch (OcException e) {
-                        AlexaIotivityBridgeDemo.msgError("Failed to get OcRepresentation from a binary switch -- " + e.toString());
-                    }
+    /**
+     * Local method to note that a write is expected to be followed by a notification of the observed resource
+     */
+    private void expectNotification(String resourceUri) {
+        if (mObservedResourceUris.contains(resourceUri) && (!isPolled(getParentLightUri(resourceUri)))) {
+            mNotificationDeadlineLookup.put(resourceUri, System.currentTimeMillis() + OBSERVE_NOTIFICATION_TIMEOUT_MILLIS);
+        }
+    }
 
-                    if (binarySwitchRepresentation != null) {
-                        Map<String, String> queryParams = new HashMap<>();
-                        try {
-                            // Invoke resource's "put" (or "post") API with a new representation
-                            OcResource binarySwitchResource = mIotivityResourceLookup.get(binarySwitch.getUri());
-                            if (binarySwitchResource != null) {
-                                if (binarySwitchResource.getUri().startsWith(BinarySwitch.UPNP_OIC_URI_PREFIX_BINARY_SWITCH)) {
-                                    // upnp bridge requires 'post'
-                                    binarySwitchResource.post(binarySwitchRepresentation, queryParams, this);
-                                } else {
-                                    binarySwitchResource.put(binarySwitchRepresentation, queryParams, this);
-                                }
+    /**
+     * Local method to note that an observation of a resource delivered a notification
+     */
+    private void observeAlive(String resourceUri) {
+        mNotificationDeadlineLookup.remove(resourceUri);
+
+        String lightUri = getParentLightUri(resourceUri);
+        ObserveHealth health = mObserveHealthLookup.get(lightUri);
+        if (health != null) {
+            synchronized (health) {
+                if (health.mPolled) {
+                    AlexaIotivityBridgeDemo.msg("Observe of light " + lightUri + " works again, polling stopped");
+                    health.mPolled = false;
+                }
+            }
+        }
+    }
 
-                            } else {
-                                AlexaIotivityBridgeDemo.msgError("No binary switch for light uri " + resourceUri);
-                            }
+    /**
+     * Local method to move the light of a resource whose observation failed or went silent to polling
+     */
+    private void observeDead(String resourceUri) {
+        String lightUri = getParentLightUri(resourceUri);
+        if (!mDeviceRegistry.containsLight(lightUri)) {
+            return;
+        }
 
-                        } catch (OcException e) {
-                            AlexaIotivityBridgeDemo.msgError("Error occurred while invoking \"put\" API -- " + e.toString());
-                        }
-                    }
+        ObserveHealth health = mObserveHealthLookup.get(lightUri);
+        if (health == null) {
+            health = new ObserveHealth();
+            mObserveHealthLookup.put(lightUri, health);
+        }
+        synchronized (health) {
+            if (!health.mPolled) {
+                long now = System.currentTimeMillis();
+                long retryMillis = Math.min(OBSERVE_MAX_RETRY_MILLIS, OBSERVE_RETRY_MILLIS << Math.min(health.mFailures, 10));
+                ++health.mFailures;
+                health.mPolled = true;
+                health.mNextPollMillis = now;
+                health.mNextObserveRetryMillis = now + retryMillis;
+                AlexaIotivityBridgeDemo.msg("Polling light " + lightUri + " every " + mPollIntervalMillis / 1000
+                        + "s, observe is retried in " + retryMillis / 1000 + "s");
+            }
+        }
+    }
 
-                } else {
-                    if (binarySwitch == null) {
-                        AlexaIotivityBridgeDemo.msgError("No binary switch for light uri " + resourceUri);
+    /**
+     * Local method to get a light and its linked resources
+     */
+    private void pollLight(String lightUri) {
+        DeviceRegistry.Entry entry = mDeviceRegistry.getLight(lightUri);
+        if (entry == null) {
+            return;
+        }
+        if (entry.getOcResource() != null) {
+            getResourceRepresentation(entry.getOcResource());
+        }
+        for (OcResource linkResource : entry.getLinkResources()) {
+            getResourceRepresentation(linkResource);
+        }
+    }
 
-                    } else {
-                        AlexaIotivityBridgeDemo.msgError("No binary switch (initialized) for light uri " + resourceUri);
-                    }
-                }
+    /**
+     * Local method to observe a polled light and its linked resources again
+     */
+    private void retryObserve(String lightUri) {
+        AlexaIotivityBridgeDemo.msg("Retrying observe of light " + lightUri);
+        DeviceRegistry.Entry entry = mDeviceRegistry.getLight(lightUri);
+        if (entry == null) {
+            return;
+        }
+        reobserveResource(entry.getOcResource());
+        for (OcResource linkResource : entry.getLinkResources()) {
+            reobserveResource(linkResource);
+        }
+    }
 
-                Brightness brightness = light.getBrightness();
-                if ((brightness != null) && (brightness.isInitialized())) {
-                    brightness.setBrightness(newLightLevel);
-                    OcRepresentation brightnessRepresentation = null;
-                    try {
-                        brightnessRepresentation = brightness.getOcRepresentation();
+    private void reobserveResource(OcResource ocResource) {
+        if (ocResource == null) {
+            return;
+        }
+        if (mObservedResourceUris.remove(ocResource.getUri())) {
+            // a silent observation is still registered, replace it
+            try {
+                ocResource.cancelObserve();
 
-                    } catch (OcException e) {
-                        AlexaIotivityBridgeDemo.msgError("Failed to get OcRepresentation from a brightness -- " + e.toString());
-                    }
+            } catch (OcException e) {
+                AlexaIotivityBridgeDemo.msgError("Error occurred while invoking \"cancelObserve\" API for resource "
+                        + ocResource.getUri() + " -- " + e.toString());
+            }
+        }
+        observeFoundResource(ocResource);
+    }
 
-                    if (brightnessRepresentation != null) {
-                        Map<String, String> queryParams = new HashMap<>();
-                        try {
-                            // Invoke resource's "put" (or "post") API with a new representation
-                            OcResource brightnessResource = mIotivityResourceLookup.get(brightness.getUri());
-                            if (brightnessResource != null) {
-                                if (brightnessResource.getUri().startsWith(Brightness.UPNP_OIC_URI_PREFIX_BRIGHTNESS)) {
-                                    // upnp bridge requires 'post'
-                                    brightnessResource.post(brightnessRepresentation, queryParams, this);
-                                } else {
-                                    brightnessResource.put(brightnessRepresentation, queryParams, this);
-                                }
+    /**
+     * Sets how many notifications may wait to be handled, and what happens when more arrive
+     */
+    public void setNotificationQueue(int capacity, DeviceExecutor.OverflowPolicy overflowPolicy) {
+        mDeviceExecutor.setNotificationCapacity(capacity);
+        mDeviceExecutor.setOverflowPolicy(overflowPolicy);
+    }
 
-                            } else {
-                                AlexaIotivityBridgeDemo.msgError("No brightness for light uri " + resourceUri);
+    /**
+     * Sets the backlogs of queued notifications at which discovery and other low priority work is delayed and shed
+     */
+    public void setHighWaterMarks(int delayMark, int shedMark) {
+        mDeviceExecutor.setHighWaterMarks(delayMark, shedMark);
+    }
+
+    public long getDelayedDiscoveryCount() {
+        return mDelayedDiscoveryCount.get();
+    }
+
+    public DeviceExecutor getDeviceExecutor() {
+        return mDeviceExecutor;
+    }
+
+    public long getPollIntervalMillis() {
+        return mPollIntervalMillis;
+    }
+
+    public void setPollIntervalMillis(long pollIntervalMillis) {
+        mPollIntervalMillis = Math.max(1000, pollIntervalMillis);
+    }
+
+    public int getMaxPollsPerSecond() {
+        return mMaxPollsPerSecond;
+    }
+
+    public void setMaxPollsPerSecond(int maxPollsPerSecond) {
+        mMaxPollsPerSecond = Math.max(1, maxPollsPerSecond);
+    }
+
+    /**
+     * @return number of lights currently polled because their observation does not work
+     */
+    public int getPolledLightCount() {
+        int count = 0;
+        for (ObserveHealth health : mObserveHealthLookup.values()) {
+            if (health.mPolled) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Timer task which notices silent observations, polls the lights which can not be observed and retries observe.
+     */
+    public class ObserveHealthTask extends TimerTask {
+        @Override
+        public void run() {
+            try {
+                long now = System.currentTimeMillis();
+                for (Map.Entry<String, Long> entry : mNotificationDeadlineLookup.entrySet()) {
+                    if (entry.getValue() < now) {
+                        final String resourceUri = entry.getKey();
+                        mNotificationDeadlineLookup.remove(resourceUri);
+                        AlexaIotivityBridgeDemo.msgError("No notification after a write to uri " + resourceUri);
+                        mDeviceExecutor.execute(getLaneKey(resourceUri), new Runnable() {
+                            @Override
+                            public void run() {
+                                observeDead(resourceUri);
                             }
+                        });
+                    }
+                }
 
-                        } catch (OcException e) {
-                            AlexaIotivityBridgeDemo.msgError("Error occurred while invoking \"put\" API -- " + e.toString());
+                // the poll budget is shared by all lights and spent on the longest overdue polls first, a light
+                // which misses out keeps its old due time and so is first in line next time
+                List<DuePoll> duePolls = new ArrayList<>();
+                for (Map.Entry<String, ObserveHealth> entry : mObserveHealthLookup.entrySet()) {
+                    final String lightUri = entry.getKey();
+                    ObserveHealth health = entry.getValue();
+                    boolean retry = false;
+                    synchronized (health) {
+                        if (!health.mPolled) {
+                            continue;
+                        }
+                        if (health.mNextPollMillis <= now) {
+                            duePolls.add(new DuePoll(lightUri, health, health.mNextPollMillis));
+                        }
+                        if (health.mNextObserveRetryMillis <= now) {
+                            // stays polled until the new observation delivers a notification
+                            health.mNextObserveRetryMillis = now + Math.min(OBSERVE_MAX_RETRY_MILLIS,
+                                    OBSERVE_RETRY_MILLIS << Math.min(health.mFailures, 10));
+                            ++health.mFailures;
+                            retry = true;
                         }
                     }
+                    if (retry) {
+                        // the light is observed again on its own lane
+                        mDeviceExecutor.execute(lightUri, new Runnable() {
+                            @Override
+                            public void run() {
+                                retryObserve(lightUri);
+                            }
+                        });
+                    }
+                }
 
-                } else {
-                    if (brightness == null) {
-                        AlexaIotivityBridgeDemo.msgError("No brightness for light uri " + resourceUri);
-
-                    } else {
-                        AlexaIotivityBridgeDemo.msgError("No brightness (initialized) for light uri " + resourceUri);
+                Collections.sort(duePolls);
+                int pollBudget = mMaxPollsPerSecond;
+                for (DuePoll duePoll : duePolls) {
+                    if (pollBudget <= 0) {
+                        break;
+                    }
+                    synchronized (duePoll.mHealth) {
+                        if ((!duePoll.mHealth.mPolled) || (duePoll.mHealth.mNextPollMillis != duePoll.mDueMillis)) {
+                            continue;
+                        }
+                        duePoll.mHealth.mNextPollMillis = now + mPollIntervalMillis;
                     }
+                    --pollBudget;
+
+                    // the light is polled on its own lane, a shed poll is made up for at the next poll interval
+                    final String lightUri = duePoll.mLightUri;
+                    mDeviceExecutor.executeLowPriority(lightUri, LOW_PRIORITY_POLL, lightUri, new Runnable() {
+                        @Override
+                        public void run() {
+                            pollLight(lightUri);
+                        }
+                    });
                 }
 
-            } else {
-                // properties are on the device
-                light.setState(newState);
-                light.setLightLevel(newLightLevel);
+            } catch (Exception e) {
+                AlexaIotivityBridgeDemo.msgError("Error running ObserveHealthTask: " + e.toString());
+                e.printStackTrace();
+            }
+        }
+    }
 
-                OcRepresentation lightRepresentation = null;
-                try {
-                    lightRepresentation = light.getOcRepresentation();
+    public void setConnectedThing(ConnectedThing connectedThing) {
+        mConnectedThing = connectedThing;
+    }
 
-                } catch (OcException e) {
-                    AlexaIotivityBridgeDemo.msgError("Failed to get OcRepresentation from light -- " + e.toString());
-                }
+    public void setDiscoveryScheduler(DiscoveryScheduler discoveryScheduler) {
+        mDiscoveryScheduler = discoveryScheduler;
+    }
 
-                if (lightRepresentation != null) {
-                    Map<String, String> queryParams = new HashMap<>();
+    private void notifyDeviceSetChanged() {
+        DiscoveryScheduler discoveryScheduler = mDiscoveryScheduler;
+        if (discoveryScheduler != null) {
+            discoveryScheduler.deviceSetChanged();
+        }
+    }
+
+    /**
+     * Restores the lights saved in a device cache file so that they can be used straight away,
+     * each light is then revalidated in the background with a "get" and "observe".
+     * The cache is saved again every 10 seconds while it changes.
+     */
+    public synchronized void setDeviceCacheFile(DeviceCacheFile deviceCacheFile) {
+        mDeviceCacheFile = deviceCacheFile;
+
+        List<DeviceCacheFile.CachedLight> cachedLights = deviceCacheFile.load();
+        for (final DeviceCacheFile.CachedLight cachedLight : cachedLights) {
+            mDeviceExecutor.execute(cachedLight.uri, new Runnable() {
+                @Override
+                public void run() {
                     try {
-                        // Invoke resource's "put" API with a new representation
-                        ocResource.put(lightRepresentation, queryParams, this);
+                        restoreLight(cachedLight);
 
                     } catch (OcException e) {
-                        AlexaIotivityBridgeDemo.msgError("Error occurred while invoking \"put\" API -- " + e.toString());
+                        AlexaIotivityBridgeDemo.msgError("Failed to restore cached light " + cachedLight.uri + " -- " + e.toString());
+                        removeLight(cachedLight.uri);
                     }
                 }
+            });
+        }
+        AlexaIotivityBridgeDemo.msg("Restoring " + cachedLights.size() + " lights from " + deviceCacheFile.getFile());
+        mDeviceCacheDirty = false;
+
+        mTimer.schedule(new DeviceCacheSaveTask(), 10*1000, 10*1000);
+    }
+
+    /**
+     * Local method to rebuild a light and its links from the device cache
+     *
+     * @param cachedLight light from the device cache
+     */
+    private void restoreLight(DeviceCacheFile.CachedLight cachedLight) throws OcException {
+        if (mDeviceRegistry.get(cachedLight.uri) != null) {
+            return;
+        }
+
+        EnumSet<OcConnectivityType> connectivityTypes = EnumSet.of(OcConnectivityType.CT_DEFAULT);
+        List<String> interfaces = Arrays.asList(OcPlatform.DEFAULT_INTERFACE);
+
+        OcResource ocResource = OcPlatform.constructResourceObject(cachedLight.host, cachedLight.uri, connectivityTypes,
+                true, Arrays.asList(Light.OIC_TYPE_DEVICE_LIGHT), interfaces);
+
+        Light light = new Light();
+        light.setUri(cachedLight.uri);
+
+        OcRepresentation lightRepresentation = new OcRepresentation();
+        if (cachedLight.linkHrefs.isEmpty()) {
+            // properties are on the device
+            lightRepresentation.setValue(Configuration.NAME_KEY, cachedLight.name);
+            lightRepresentation.setValue(BinarySwitch.VALUE_KEY, cachedLight.powerOn);
+            lightRepresentation.setValue(Brightness.BRIGHTNESS_KEY, cachedLight.brightness);
+
+        } else {
+            Link[] links = new Link[cachedLight.linkHrefs.size()];
+            for (int i = 0; i < links.length; ++i) {
+                links[i] = new Link();
+                links[i].setHref(cachedLight.linkHrefs.get(i));
+                links[i].setRt(new String[] { cachedLight.linkTypes.get(i) });
             }
+            Links lightLinks = new Links();
+            lightLinks.setLinks(links);
+            lightRepresentation.setValue(Device.LINKS_KEY, lightLinks.getOcRepresentation());
+        }
+        light.setOcRepresentation(lightRepresentation);
+
+        DeviceRegistry.Entry entry = mDeviceRegistry.addLight(cachedLight.uri, light);
+        entry.setOcResource(ocResource);
+        mRestoredUris.add(cachedLight.uri);
+        mRestoredHandleUris.add(cachedLight.uri);
+        mUnconfirmedUris.add(cachedLight.uri);
+
+        List<OcResource> linkResources = new ArrayList<>();
+        for (int i = 0; i < cachedLight.linkHrefs.size(); ++i) {
+            String href = cachedLight.linkHrefs.get(i);
+            Service service = attachLinkedService(light, href);
+            if (service == null) {
+                continue;
+            }
+
+            // seed the service with its last known value
+            OcRepresentation serviceRepresentation = new OcRepresentation();
+            if (service instanceof BinarySwitch) {
+                serviceRepresentation.setValue(BinarySwitch.VALUE_KEY, cachedLight.powerOn);
+            } else if (service instanceof Brightness) {
+                serviceRepresentation.setValue(Brightness.BRIGHTNESS_KEY, cachedLight.brightness);
+            } else if (service instanceof Configuration) {
+                serviceRepresentation.setValue(Configuration.NAME_KEY, cachedLight.name);
+            }
+            service.setOcRepresentation(serviceRepresentation);
+
+            OcResource linkResource = OcPlatform.constructResourceObject(cachedLight.host, href, connectivityTypes,
+                    true, Arrays.asList(cachedLight.linkTypes.get(i)), interfaces);
+            if (mDeviceRegistry.addLink(entry, href, linkResource, service)) {
+                mUnconfirmedUris.add(href);
+                linkResources.add(linkResource);
+            }
+        }
+        light.setName(cachedLight.name);
+
+        updateLightDevice(entry);
 
-        } else {
-            AlexaIotivityBridgeDemo.msgError("No light for uri " + resourceUri);
+        // revalidate in the background
+        getResourceRepresentation(ocResource);
+        observeFoundResource(ocResource);
+        for (OcResource linkResource : linkResources) {
+            getResourceRepresentation(linkResource);
+            observeFoundResource(linkResource);
         }
     }
 
     /**
-     * An event handler to be executed whenever a "put" request completes successfully
-     *
-     * @param list             list of the header options
-     * @param ocRepresentation representation of a resource
+     * Saves the current lights to the device cache file, if there is one
      */
-    @Override
-    public synchronized void onPutCompleted(List<OcHeaderOption> list, OcRepresentation ocRepresentation) {
-
-        try {
-            // Read attribute values into local representation of resource
-            final String ocRepUri = ocRepresentation.getUri();
-            if (ocRepUri != null && !ocRepUri.isEmpty()) {
-//                AlexaIotivityBridgeDemo.msg("Put Resource URI: " + ocRepUri);
+    public void saveDeviceCache() {
+        DeviceCacheFile deviceCacheFile = mDeviceCacheFile;
+        if (deviceCacheFile == null) {
+            return;
+        }
+        mDeviceCacheDirty = false;
+
+        List<DeviceCacheFile.CachedLight> cachedLights = new ArrayList<>();
+        for (DeviceRegistry.Entry entry : mDeviceRegistry.getLights()) {
+            OcResource ocResource = entry.getOcResource();
+            if ((ocResource != null) && (entry.getLightDevice() != null)) {
+                Light light = entry.getLight();
+                DeviceCacheFile.CachedLight cachedLight = new DeviceCacheFile.CachedLight();
+                cachedLight.uri = light.getUri();
+                cachedLight.host = ocResource.getHost();
+                cachedLight.name = light.getName();
+                cachedLight.powerOn = light.getState();
+                cachedLight.brightness = light.getLightLevel();
+                for (Link link : light.getLinks().getLinks()) {
+                    String rt = getFirstResourceType(link);
+                    if ((rt != null) && entry.hasLink(link.getHref())) {
+                        cachedLight.linkHrefs.add(link.getHref());
+                        cachedLight.linkTypes.add(rt);
+                    }
+                }
+                cachedLights.add(cachedLight);
+            }
+        }
 
-                Resource resource = mResourceLookup.get(ocRepUri);
-                if (resource != null) {
-                    resource.setOcRepresentation(ocRepresentation);
-                    AlexaIotivityBridgeDemo.msg("Put Resource attributes: " + resource.toString());
+        deviceCacheFile.save(cachedLights);
+    }
 
-                } else {
-                    AlexaIotivityBridgeDemo.msgError("Put No resource for uri " + ocRepUri);
+    class DeviceCacheSaveTask extends TimerTask {
+        @Override
+        public void run() {
+            try {
+                if (mDeviceCacheDirty) {
+                    saveDeviceCache();
                 }
 
-            } else {
-                AlexaIotivityBridgeDemo.msgError("Put No Resource URI");
+            } catch (Exception e) {
+                AlexaIotivityBridgeDemo.msgError("Error saving device cache: " + e.toString());
+                e.printStackTrace();
             }
-
-        } catch (OcException e) {
-            AlexaIotivityBridgeDemo.msgError("Put Failed to create resource representation -- " + e.toString());
         }
     }
 
     /**
-     * An event handler to be executed whenever a "put" request fails
-     *
-     * @param throwable exception
+     * @return how long a light may go unseen before it is removed
      */
-    @Override
-    public synchronized void onPutFailed(Throwable throwable) {
-        if (throwable instanceof OcException) {
-            OcException ocEx = (OcException) throwable;
-            AlexaIotivityBridgeDemo.msgError(ocEx.toString());
-            ErrorCode errCode = ocEx.getErrorCode();
-            // do something based on errorCode
-            AlexaIotivityBridgeDemo.msgError("Error code: " + errCode);
-        }
-        AlexaIotivityBridgeDemo.msgError("Failed to \"put\" a new representation");
+    public long getStaleTimeoutMillis() {
+        return mStaleExpiryWheel.getTtlMillis();
+    }
+
+    public void setStaleTimeoutMillis(long staleTimeoutMillis) {
+        mStaleExpiryWheel.setTtlMillis(staleTimeoutMillis);
     }
 
     /**
-     * An event handler to be executed whenever a "post" request completes successfully
-     *
-     * @param list             list of the header options
-     * @param ocRepresentation representation of a resource
+     * @return how late after its stale timeout a light may be removed
      */
-    @Override
-    public synchronized void onPostCompleted(List<OcHeaderOption> list, OcRepresentation ocRepresentation) {
+    public long getStaleExpiryPrecisionMillis() {
+        return mStaleExpiryWheel.getTickMillis();
+    }
+
+    public void setStaleExpiryPrecisionMillis(long precisionMillis) {
+        mStaleExpiryWheel.setTickMillis(precisionMillis);
+        scheduleStaleExpiry();
+    }
+
+    private synchronized void scheduleStaleExpiry() {
+        if (mStaleExpiryTask != null) {
+            mStaleExpiryTask.cancel();
+        }
+        long tickMillis = mStaleExpiryWheel.getTickMillis();
+        mStaleExpiryTask = new StaleExpiryTask();
+        mTimer.schedule(mStaleExpiryTask, tickMillis, tickMillis);
+    }
 
+    /**
+     * Start adding and removing lights as presence events arrive, polling discovery
+     * is then only needed as a slow fallback.
+     */
+    public void startPresence(PresenceSource presenceSource) {
+        stopPresence();
         try {
-            // Read attribute values into local representation of resource
-            final String ocRepUri = ocRepresentation.getUri();
-            if (ocRepUri != null && !ocRepUri.isEmpty()) {
-//                AlexaIotivityBridgeDemo.msg("Post Resource URI: " + ocRepUri);
+            presenceSource.subscribe(new PresenceListener());
+            mPresenceSource = presenceSource;
 
-                Resource resource = mResourceLookup.get(ocRepUri);
-                if (resource != null) {
-                    resource.setOcRepresentation(ocRepresentation);
-                    AlexaIotivityBridgeDemo.msg("Post Resource attributes: " + resource.toString());
+        } catch (OcException e) {
+            AlexaIotivityBridgeDemo.msgError("Failed to subscribe to presence -- " + e.toString());
+        }
+    }
 
-                } else {
-                    AlexaIotivityBridgeDemo.msgError("Post No resource for uri " + ocRepUri);
-                }
+    public void stopPresence() {
+        PresenceSource presenceSource = mPresenceSource;
+        mPresenceSource = null;
+        if (presenceSource != null) {
+            try {
+                presenceSource.unsubscribe();
 
-            } else {
-                AlexaIotivityBridgeDemo.msgError("Post No Resource URI");
+            } catch (OcException e) {
+                AlexaIotivityBridgeDemo.msgError("Failed to unsubscribe from presence -- " + e.toString());
             }
-
-        } catch (OcException e) {
-            AlexaIotivityBridgeDemo.msgError("Post Failed to create resource representation -- " + e.toString());
         }
     }
 
+    public boolean isPresenceEnabled() {
+        return mPresenceSource != null;
+    }
+
     /**
-     * An event handler to be executed whenever a "post" request fails
-     *
-     * @param throwable exception
+     * Presence listener, a host which announces itself is queried for lights and the lights
+     * of a host which stops or times out are removed.
      */
-    @Override
-    public synchronized void onPostFailed(Throwable throwable) {
-        if (throwable instanceof OcException) {
-            OcException ocEx = (OcException) throwable;
-            AlexaIotivityBridgeDemo.msgError(ocEx.toString());
-            ErrorCode errCode = ocEx.getErrorCode();
-            // do something based on errorCode
-            AlexaIotivityBridgeDemo.msgError("Error code: " + errCode);
+    class PresenceListener implements OcPlatform.OnPresenceListener {
+
+        @Override
+        public void onPresence(OcPresenceStatus presenceStatus, int nonce, String hostAddress) {
+            if (OcPresenceStatus.OK == presenceStatus) {
+                AlexaIotivityBridgeDemo.msg("Presence of host " + hostAddress);
+                String requestUri = OcPlatform.WELL_KNOWN_QUERY + "?rt=" + Light.OIC_TYPE_DEVICE_LIGHT;
+                try {
+                    OcPlatform.findResources(hostAddress, requestUri, EnumSet.of(OcConnectivityType.CT_DEFAULT),
+                            new PresenceLookupListener(hostAddress));
+
+                } catch (OcException e) {
+                    AlexaIotivityBridgeDemo.msgError("Failed to find resources on host " + hostAddress + " -- " + e.toString());
+                }
+
+            } else if ((OcPresenceStatus.STOPPED == presenceStatus) || (OcPresenceStatus.TIMEOUT == presenceStatus)) {
+                AlexaIotivityBridgeDemo.msg("Presence " + presenceStatus + " for host " + hostAddress);
+                removeHost(hostAddress);
+            }
         }
-        AlexaIotivityBridgeDemo.msgError("Failed to \"post\" a new representation");
     }
 
     /**
-     * Local method to start observing this resource
+     * Local method to remove all lights of a host which has gone away
      *
-     * @param ocResource found resource
+     * @param hostAddress address of the host
      */
-    private void observeFoundResource(OcResource ocResource) {
-        try {
-            // Invoke resource's "observe" API with a observe type
-            ocResource.observe(ObserveType.OBSERVE, new HashMap<String, String>(), this);
-
-        } catch (OcException e) {
-            AlexaIotivityBridgeDemo.msgError("Error occurred while invoking \"observe\" API -- " + e.toString());
+    private void removeHost(String hostAddress) {
+        List<String> lightUris = new ArrayList<>();
+        for (DeviceRegistry.Entry entry : mDeviceRegistry.getLights()) {
+            OcResource ocResource = entry.getOcResource();
+            if ((ocResource != null) && isSameHost(ocResource.getHost(), hostAddress)) {
+                AlexaIotivityBridgeDemo.msg("Removing uri " + entry.getUri() + " of host " + hostAddress);
+                lightUris.add(entry.getUri());
+            }
         }
+        removeLights(lightUris, false);
     }
 
     /**
-     * An event handler to be executed whenever a "observe" request completes successfully
+     * Local method to remove lights on their own lanes, then publish the remaining lights once. The caller
+     * does not wait, so a timer or presence thread is not held up by a busy lane.
      *
-     * @param list             list of the header options
-     * @param ocRepresentation representation of a resource
-     * @param sequenceNumber   sequence number
+     * @param lightUris uris of the lights to remove
+     * @param staleOnly when set, a light seen again since it expired is kept
+     * @return completes with the number of lights removed once every lane has handled its removal
      */
-    @Override
-    public synchronized void onObserveCompleted(List<OcHeaderOption> list, OcRepresentation ocRepresentation, int sequenceNumber) {
-//        if (OcResource.OnObserveListener.REGISTER == sequenceNumber) {
-//            AlexaIotivityBridgeDemo.msg("Observe registration action is successful");
-//        } else {
-//            AlexaIotivityBridgeDemo.msg("Observe sequence number " + sequenceNumber);
-//        }
-
-        if ((sequenceNumber > 0) && (sequenceNumber < (OcResource.OnObserveListener.MAX_SEQUENCE_NUMBER + 1))) {
-            onGetCompleted(list, ocRepresentation);
+    private CompletableFuture<Integer> removeLights(Collection<String> lightUris, final boolean staleOnly) {
+        final List<CompletableFuture<Boolean>> removals = new ArrayList<>();
+        for (final String uri : lightUris) {
+            final CompletableFuture<Boolean> removal = new CompletableFuture<>();
+            mDeviceExecutor.execute(uri, new Runnable() {
+                @Override
+                public void run() {
+                    DeviceRegistry.Entry entry = mDeviceRegistry.getLight(uri);
+                    if (staleOnly && (entry != null)
+                            && (System.currentTimeMillis() - entry.getLastSeenMillis() < getStaleTimeoutMillis())) {
+                        // seen again after it expired
+                        mStaleExpiryWheel.touch(uri, entry.getLastSeenMillis());
+                        removal.complete(false);
+                        return;
+                    }
+                    removal.complete(removeLight(uri));
+                }
+            });
+            removals.add(removal);
         }
+
+        // the shadow is updated off the lanes, deleting the document is a blocking call
+        return CompletableFuture.allOf(removals.toArray(new CompletableFuture<?>[removals.size()])).thenApplyAsync(
+                new Function<Void, Integer>() {
+                    @Override
+                    public Integer apply(Void ignored) {
+                        int removed = 0;
+                        for (CompletableFuture<Boolean> removal : removals) {
+                            if (removal.join()) {
+                                ++removed;
+                            }
+                        }
+                        if (removed > 0) {
+                            publishLightDevices();
+                            try {
+                                mConnectedThing.delete();
+
+                            } catch (AWSIotException e) {
+                                AlexaIotivityBridgeDemo.msgError("Failed to delete shadow document -- " + e.toString());
+                            }
+                        }
+                        return removed;
+                    }
+                });
     }
 
     /**
-     * An event handler to be executed whenever a "observe" request fails
-     *
-     * @param throwable exception
+     * Compares host addresses, ignoring any "coap://" style scheme prefix
      */
-    @Override
-    public synchronized void onObserveFailed(Throwable throwable) {
-        if (throwable instanceof OcException) {
-            OcException ocEx = (OcException) throwable;
-            AlexaIotivityBridgeDemo.msgError(ocEx.toString());
-            ErrorCode errCode = ocEx.getErrorCode();
-            // do something based on errorCode
-            AlexaIotivityBridgeDemo.msgError("Error code: " + errCode);
+    private static boolean isSameHost(String lhs, String rhs) {
+        if ((lhs == null) || (rhs == null)) {
+            return false;
         }
-        AlexaIotivityBridgeDemo.msgError("Observation of the found light resource has failed");
+        int lhsIndex = lhs.indexOf("://");
+        int rhsIndex = rhs.indexOf("://");
+        String lhsAddress = (lhsIndex >= 0) ? lhs.substring(lhsIndex + 3) : lhs;
+        String rhsAddress = (rhsIndex >= 0) ? rhs.substring(rhsIndex + 3) : rhs;
+        return lhsAddress.equalsIgnoreCase(rhsAddress);
     }
 
-    public void setConnectedThing(ConnectedThing connectedThing) {
-        mConnectedThing = connectedThing;
+    public boolean isIncrementalDiscovery() {
+        return mIncrementalDiscovery;
+    }
+
+    public void setIncrementalDiscovery(boolean incrementalDiscovery) {
+        mIncrementalDiscovery = incrementalDiscovery;
     }
 
     private String toUpdatePayload(ConnectedThing.LightDevice[] lightDevices) {
@@ -810,12 +3208,157 @@ public class IotivityClient implements
         return payload.toString();
     }
 
+    /**
+     * Stops the client within a bounded time. Discovery and new commands are refused, queued commands and
+     * in-flight writes are waited for, the observations of all lights are cancelled in parallel and the final
+     * state is published to the shadow and saved to the device cache.
+     *
+     * @param timeoutMillis time allowed for the whole shutdown
+     * @return true if every step finished in time
+     */
+    public boolean stop(long timeoutMillis) {
+        long startMillis = System.currentTimeMillis();
+        long deadline = startMillis + timeoutMillis;
+        mStopping = true;
+
+        // no more discovery, presence, stale removals or polls
+        stopPresence();
+        mTimer.cancel();
+        if (mWorkflowExecutor != null) {
+            mWorkflowExecutor.shutdownNow();
+        }
+
+        // commands already queued on the lanes are sent, and their answers waited for
+        List<CompletableFuture<Void>> barriers = new ArrayList<>();
+        for (DeviceRegistry.Entry entry : mDeviceRegistry.getLights()) {
+            final CompletableFuture<Void> barrier = new CompletableFuture<>();
+            final String uri = entry.getUri();
+            mDeviceExecutor.execute(uri, new Runnable() {
+                @Override
+                public void run() {
+                    // buffered commands are not left waiting for their window
+                    flushCommands(uri);
+                    barrier.complete(null);
+                }
+            });
+            barriers.add(barrier);
+        }
+        boolean drained = true;
+        try {
+            for (CompletableFuture<Void> barrier : barriers) {
+                IotivityFutures.await(barrier, Math.max(1, deadline - System.currentTimeMillis()));
+            }
+            while ((!mPendingWriteLookup.isEmpty()) || (mBufferedCommandCount.get() > 0)) {
+                if (System.currentTimeMillis() >= deadline) {
+                    drained = false;
+                    break;
+                }
+                Thread.sleep(10);
+            }
+
+        } catch (TimeoutException | ExecutionException e) {
+            drained = false;
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            drained = false;
+        }
+        long drainedMillis = System.currentTimeMillis();
+        if (!drained) {
+            AlexaIotivityBridgeDemo.msgError("Shutdown gave up on " + mPendingWriteLookup.size() + " unanswered writes");
+        }
+
+        // each light cancels its observations on its own lane, the lights in parallel
+        List<CompletableFuture<Integer>> cancellations = new ArrayList<>();
+        for (final DeviceRegistry.Entry entry : mDeviceRegistry.getLights()) {
+            final CompletableFuture<Integer> cancellation = new CompletableFuture<>();
+            mDeviceExecutor.execute(entry.getUri(), new Runnable() {
+                @Override
+                public void run() {
+                    List<OcResource> ocResources = entry.getLinkResources();
+                    if (entry.getOcResource() != null) {
+                        ocResources.add(entry.getOcResource());
+                    }
+                    int cancelled = 0;
+                    for (OcResource ocResource : ocResources) {
+                        if (mObservedResourceUris.remove(ocResource.getUri())) {
+                            try {
+                                ocResource.cancelObserve();
+                                ++cancelled;
+
+                            } catch (OcException e) {
+                                AlexaIotivityBridgeDemo.msgError("Error occurred while invoking \"cancelObserve\" API for resource "
+                                        + ocResource.getUri() + " -- " + e.toString());
+                            }
+                        }
+                    }
+                    cancellation.complete(cancelled);
+                }
+            });
+            cancellations.add(cancellation);
+        }
+        int cancelledCount = 0;
+        boolean cancelled = true;
+        try {
+            for (CompletableFuture<Integer> cancellation : cancellations) {
+                cancelledCount += IotivityFutures.await(cancellation, Math.max(1, deadline - System.currentTimeMillis()));
+            }
+
+        } catch (TimeoutException | ExecutionException e) {
+            cancelled = false;
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancelled = false;
+        }
+        long cancelledMillis = System.currentTimeMillis();
+
+        // the shadow and the device cache get the final state
+        boolean flushed = true;
+        if (mConnectedThing != null) {
+            publishLightDevices();
+            flushed = mConnectedThing.flush(Math.max(1, deadline - System.currentTimeMillis()));
+        }
+        saveDeviceCache();
+        long flushedMillis = System.currentTimeMillis();
+
+        boolean stopped = false;
+        try {
+            stopped = mDeviceExecutor.shutdown(Math.max(0, deadline - System.currentTimeMillis()));
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        long endMillis = System.currentTimeMillis();
+        AlexaIotivityBridgeDemo.msg("Stopped in " + (endMillis - startMillis) + " ms (drain " + (drainedMillis - startMillis)
+                + " ms, cancel " + cancelledCount + " observations " + (cancelledMillis - drainedMillis)
+                + " ms, flush " + (flushedMillis - cancelledMillis) + " ms)");
+        long rejectedCount = mDeviceExecutor.getRejectedCount();
+        if (rejectedCount > 0) {
+            AlexaIotivityBridgeDemo.msg("Callbacks dropped after stop: " + rejectedCount);
+        }
+        return drained && cancelled && flushed && stopped;
+    }
+
+    public boolean isStopping() {
+        return mStopping;
+    }
+
     public synchronized void cancelObserve() {
-        for (OcResource ocResource : mIotivityResourceLookup.values()) {
+        List<OcResource> ocResources = new ArrayList<>();
+        for (DeviceRegistry.Entry entry : mDeviceRegistry.getLights()) {
+            if (entry.getOcResource() != null) {
+                ocResources.add(entry.getOcResource());
+            }
+            ocResources.addAll(entry.getLinkResources());
+        }
+        for (OcResource ocResource : ocResources) {
             if (ocResource.getUri().contains(Light.OIC_URI_PREFIX_LIGHT)) {
                 try {
                     AlexaIotivityBridgeDemo.msg("Cancelling Observe for " + ocResource.getUri());
                     ocResource.cancelObserve();
+                    mObservedResourceUris.remove(ocResource.getUri());
                 } catch (OcException e) {
                     AlexaIotivityBridgeDemo.msgError("Error occurred while invoking \"cancelObserve\" API for resource "
                             + ocResource.getUri() + " -- " + e.toString());
@@ -824,36 +3367,165 @@ public class IotivityClient implements
         }
     }
 
+    /**
+     * Cached device info of a host.
+     */
+    static class DeviceInfo {
+
+        final String mName;
+        final long mFetchedMillis;
+
+        DeviceInfo(String name, long fetchedMillis) {
+            mName = name;
+            mFetchedMillis = fetchedMillis;
+        }
+    }
+
+    /**
+     * A device info request in flight, with the lights waiting for its answer.
+     */
+    static class DeviceInfoRequest {
+
+        final long mRequestedMillis;
+        final List<Light> mLights = new ArrayList<>();
+
+        DeviceInfoRequest(long requestedMillis) {
+            mRequestedMillis = requestedMillis;
+        }
+    }
+
+    /**
+     * Local method to set the name of an OCF light from the 'n' property of its device, the device
+     * info of each host is cached so that repeat discoveries do not query "/oic/d" again
+     *
+     * @param hostAddress host of the light
+     * @param light       light to name
+     */
+    private void requestDeviceName(String hostAddress, Light light) {
+        long now = System.currentTimeMillis();
+        DeviceInfo deviceInfo = mDeviceInfoLookup.get(hostAddress);
+        if ((deviceInfo != null) && (now - deviceInfo.mFetchedMillis < mDeviceInfoTtlMillis)) {
+            light.setName(deviceInfo.mName);
+            return;
+        }
+
+        synchronized (mDeviceInfoRequestLookup) {
+            DeviceInfoRequest request = mDeviceInfoRequestLookup.get(hostAddress);
+            if ((request != null) && (now - request.mRequestedMillis < DEVICE_INFO_RETRY_MILLIS)) {
+                // already asked for, name the light with the answer
+                if (!request.mLights.contains(light)) {
+                    request.mLights.add(light);
+                }
+                return;
+            }
+            request = new DeviceInfoRequest(now);
+            request.mLights.add(light);
+            mDeviceInfoRequestLookup.put(hostAddress, request);
+        }
+
+        try {
+            OcPlatform.getDeviceInfo(hostAddress, OcPlatform.WELL_KNOWN_DEVICE_QUERY,
+                    EnumSet.of(OcConnectivityType.CT_DEFAULT), new DeviceFoundListener(hostAddress));
+        } catch (OcException e) {
+            synchronized (mDeviceInfoRequestLookup) {
+                mDeviceInfoRequestLookup.remove(hostAddress);
+            }
+            AlexaIotivityBridgeDemo.msgError(e.toString());
+        }
+    }
+
+    /**
+     * Forget the cached device info of a host, for example after the device has been renamed
+     *
+     * @param hostAddress host of the device
+     */
+    public void invalidateDeviceInfo(String hostAddress) {
+        if ((hostAddress != null) && (mDeviceInfoLookup.remove(hostAddress) != null)) {
+            AlexaIotivityBridgeDemo.msg("Invalidated device info of host " + hostAddress);
+        }
+    }
+
+    public long getDeviceInfoTtlMillis() {
+        return mDeviceInfoTtlMillis;
+    }
+
+    public void setDeviceInfoTtlMillis(long deviceInfoTtlMillis) {
+        mDeviceInfoTtlMillis = deviceInfoTtlMillis;
+    }
+
     class DeviceFoundListener implements OcPlatform.OnDeviceFoundListener {
 
-        Light light;
+        String hostAddress;
 
-        public DeviceFoundListener(Light light) {
-            this.light = light;
+        public DeviceFoundListener(String hostAddress) {
+            this.hostAddress = hostAddress;
         }
 
         @Override
         public void onDeviceFound(OcRepresentation ocRepresentation) {
+            List<Light> lights;
+            synchronized (mDeviceInfoRequestLookup) {
+                DeviceInfoRequest request = mDeviceInfoRequestLookup.remove(hostAddress);
+                lights = (request != null) ? request.mLights : new ArrayList<Light>();
+            }
+
             try {
                 if (ocRepresentation.hasAttribute("n")) {
-                    String name = ocRepresentation.getValue("n");
-                    light.setName(name);
+                    final String name = ocRepresentation.getValue("n");
+                    mDeviceInfoLookup.put(hostAddress, new DeviceInfo(name, System.currentTimeMillis()));
+                    for (final Light light : lights) {
+                        mDeviceExecutor.execute(light.getUri(), new Runnable() {
+                            @Override
+                            public void run() {
+                                light.setName(name);
+                            }
+                        });
+                    }
 //                    AlexaIotivityBridgeDemo.msg("OCF device found callback: 'n' = " + name);
                 } else {
-                    AlexaIotivityBridgeDemo.msgError("'n' attribute not found for device " + light.toString());
+                    AlexaIotivityBridgeDemo.msgError("'n' attribute not found for device " + hostAddress);
                 }
 
             } catch (OcException e) {
-                AlexaIotivityBridgeDemo.msgError("Get 'n' attribute failed for device " + light.toString());
+                AlexaIotivityBridgeDemo.msgError("Get 'n' attribute failed for device " + hostAddress);
                 e.printStackTrace();
             }
         }
     };
 
-    class DeviceNameComparator implements Comparator<ConnectedThing.LightDevice> {
+    /**
+     * Timer task which removes the lights whose stale timeout has passed, only due lights cost any work
+     */
+    public class StaleExpiryTask extends TimerTask {
         @Override
-        public int compare(ConnectedThing.LightDevice lhs, ConnectedThing.LightDevice rhs) {
-            return (lhs.getName().compareToIgnoreCase(rhs.getName()));
+        public void run() {
+            try {
+                long now = System.currentTimeMillis();
+                if (mDeviceExecutor.getLoad() != DeviceExecutor.Load.NORMAL) {
+                    // discovery of known lights is held back as well, so they could not be seen again in time
+                    if (mStaleExpiryWheel.pause(now)) {
+                        AlexaIotivityBridgeDemo.msg("Stale expiry paused while notifications back up");
+                    }
+                    return;
+                }
+                if (mStaleExpiryWheel.resume(now)) {
+                    AlexaIotivityBridgeDemo.msg("Stale expiry resumed");
+                }
+                List<String> expiredUris = mStaleExpiryWheel.expire(now);
+                for (String uri : expiredUris) {
+                    // uri not seen for the stale timeout, remove from the registry
+                    DeviceRegistry.Entry entry = mDeviceRegistry.getLight(uri);
+                    AlexaIotivityBridgeDemo.msg("Removing stale uri " + uri + ((entry != null)
+                            ? ", last seen " + (now - entry.getLastSeenMillis()) / 1000 + "s ago" : ""));
+                }
+                if (!expiredUris.isEmpty()) {
+                    removeLights(expiredUris, true);
+                }
+
+            } catch (Exception e) {
+                AlexaIotivityBridgeDemo.msgError("Error running StaleExpiryTask: " + e.toString());
+                e.printStackTrace();
+            }
         }
     }
 
@@ -863,26 +3535,45 @@ public class IotivityClient implements
             try {
                 boolean mustDeleteShadowDocument = false;
                 long now = System.currentTimeMillis();
-                for (Map.Entry<String,Long> entry : mStaleResourceUriLookup.entrySet()) {
-                    if (entry.getValue() < now - 30*1000) {
-                        // uri not seen in 30 seconds, remove from maps
-                        String key = entry.getKey();
-                        AlexaIotivityBridgeDemo.msg("Removing stale uri " + key);
-                        Light light = (Light) mResourceLookup.get(key);
-                        for (Link link : light.getLinks().getLinks()) {
-                            AlexaIotivityBridgeDemo.msg("Removing stale uri link " + link.getHref());
-                            mIotivityResourceLookup.remove(link.getHref());
-                            mResourceLookup.remove(link.getHref());
-                        }
-                        mConnectedThingLookup.remove(key);
-                        mIotivityResourceLookup.remove(key);
-                        mResourceLookup.remove(key);
-                        mStaleResourceUriLookup.remove(key);
-
-                        mustDeleteShadowDocument = true;
+                long duplicateCount = mObserveDuplicateCount.get();
+                long outOfOrderCount = mObserveOutOfOrderCount.get();
+                if (duplicateCount + outOfOrderCount != mLoggedObserveDiscardCount) {
+                    mLoggedObserveDiscardCount = duplicateCount + outOfOrderCount;
+                    AlexaIotivityBridgeDemo.msg("Observe notifications dropped, duplicate: " + duplicateCount
+                            + ", out of order: " + outOfOrderCount);
+                }
+                long coalescedCount = mDeviceExecutor.getCoalescedCount();
+                long droppedCount = mDeviceExecutor.getDroppedCount();
+                if (coalescedCount + droppedCount != mLoggedNotificationDiscardCount) {
+                    mLoggedNotificationDiscardCount = coalescedCount + droppedCount;
+                    AlexaIotivityBridgeDemo.msg("Queued notifications coalesced: " + coalescedCount
+                            + ", dropped: " + droppedCount + ", queued: " + mDeviceExecutor.getQueuedNotificationCount());
+                }
+                long delayedCount = mDeviceExecutor.getDelayedCount();
+                long replacedDelayedCount = mDeviceExecutor.getReplacedDelayedCount();
+                long shedCount = mDeviceExecutor.getShedCount();
+                long delayedDiscoveryCount = mDelayedDiscoveryCount.get();
+                if (delayedCount + replacedDelayedCount + shedCount + delayedDiscoveryCount != mLoggedSheddingCount) {
+                    mLoggedSheddingCount = delayedCount + replacedDelayedCount + shedCount + delayedDiscoveryCount;
+                    AlexaIotivityBridgeDemo.msg("Low priority tasks delayed: " + delayedCount + ", replaced while delayed: "
+                            + replacedDelayedCount + ", shed: " + shedCount + ", discovery cycles delayed: " + delayedDiscoveryCount);
+                }
+                long coalescedCommandCount = mCoalescedCommandCount.get();
+                if (coalescedCommandCount != mLoggedCoalescedCommandCount) {
+                    mLoggedCoalescedCommandCount = coalescedCommandCount;
+                    AlexaIotivityBridgeDemo.msg("Light commands collapsed into a later one: " + coalescedCommandCount);
+                }
+                long suppressedWriteCount = mSuppressedWriteCount.get();
+                if (suppressedWriteCount != mLoggedSuppressedWriteCount) {
+                    mLoggedSuppressedWriteCount = suppressedWriteCount;
+                    AlexaIotivityBridgeDemo.msg("Writes skipped, value already confirmed: " + suppressedWriteCount);
+                }
+                for (Iterator<EndpointLatency> it = mEndpointLatencyLookup.values().iterator(); it.hasNext();) {
+                    if (it.next().getUpdatedMillis() < now - getStaleTimeoutMillis()) {
+                        it.remove();
                     }
                 }
-                if (mConnectedThingLookup.isEmpty()) {
+                if (mLightDeviceIndex.size() == 0) {
                     mConnectedThing.setLightDevices(new ConnectedThing.LightDevice[0]);
                     mustDeleteShadowDocument = true;
                 }
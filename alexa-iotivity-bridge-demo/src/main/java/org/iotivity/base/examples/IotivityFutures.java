@@ -0,0 +1,196 @@
+/*
+ *******************************************************************
+ *
+ * Copyright 2017 Intel Corporation.
+ *
+ *-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=
+ */
+
+
+package org.iotivity.base.examples;
+
+import org.iotivity.base.OcConnectivityType;
+import org.iotivity.base.OcException;
+import org.iotivity.base.OcHeaderOption;
+import org.iotivity.base.OcPlatform;
+import org.iotivity.base.OcRepresentation;
+import org.iotivity.base.OcResource;
+
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * IotivityFutures
+ *
+ * Adapters which turn the IoTivity callback listeners into futures, so that a device workflow can be
+ * written as sequential blocking code with a timeout on each step.
+ */
+public class IotivityFutures {
+
+    private IotivityFutures() {
+    }
+
+    /**
+     * Creates an executor which runs each task on its own virtual thread when the JDK has them
+     * (Java 21 and later), otherwise on a cached pool of platform threads.
+     */
+    public static ExecutorService newWorkflowExecutor() {
+        try {
+            // looked up at runtime so the bridge still builds and runs on Java 8
+            Object executor = Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            AlexaIotivityBridgeDemo.msg("Device workflows run on virtual threads");
+            return (ExecutorService) executor;
+
+        } catch (ReflectiveOperationException e) {
+            AlexaIotivityBridgeDemo.msg("Virtual threads are not available, device workflows run on platform threads");
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * Waits for a step of a workflow
+     *
+     * @return the result of the step
+     * @throws TimeoutException if the step did not complete within the timeout
+     */
+    public static <T> T await(CompletableFuture<T> future, long timeoutMillis)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        try {
+            return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+
+        } catch (TimeoutException e) {
+            // a late callback completes a future nobody is waiting for
+            future.cancel(false);
+            throw e;
+        }
+    }
+
+    public static CompletableFuture<OcRepresentation> get(OcResource ocResource) {
+        final CompletableFuture<OcRepresentation> future = new CompletableFuture<>();
+        try {
+            ocResource.get(new HashMap<String, String>(), new OcResource.OnGetListener() {
+                @Override
+                public void onGetCompleted(List<OcHeaderOption> list, OcRepresentation ocRepresentation) {
+                    future.complete(ocRepresentation);
+                }
+
+                @Override
+                public void onGetFailed(Throwable throwable) {
+                    future.completeExceptionally(throwable);
+                }
+            });
+
+        } catch (OcException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    public static CompletableFuture<OcRepresentation> put(OcResource ocResource, OcRepresentation ocRepresentation) {
+        final CompletableFuture<OcRepresentation> future = new CompletableFuture<>();
+        try {
+            ocResource.put(ocRepresentation, new HashMap<String, String>(), new OcResource.OnPutListener() {
+                @Override
+                public void onPutCompleted(List<OcHeaderOption> list, OcRepresentation ocRepresentation) {
+                    future.complete(ocRepresentation);
+                }
+
+                @Override
+                public void onPutFailed(Throwable throwable) {
+                    future.completeExceptionally(throwable);
+                }
+            });
+
+        } catch (OcException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    public static CompletableFuture<OcRepresentation> post(OcResource ocResource, OcRepresentation ocRepresentation) {
+        final CompletableFuture<OcRepresentation> future = new CompletableFuture<>();
+        try {
+            ocResource.post(ocRepresentation, new HashMap<String, String>(), new OcResource.OnPostListener() {
+                @Override
+                public void onPostCompleted(List<OcHeaderOption> list, OcRepresentation ocRepresentation) {
+                    future.complete(ocRepresentation);
+                }
+
+                @Override
+                public void onPostFailed(Throwable throwable) {
+                    future.completeExceptionally(throwable);
+                }
+            });
+
+        } catch (OcException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Unicast discovery on a single host, completes with the first reply
+     */
+    public static CompletableFuture<OcResource[]> findResources(String host, String requestUri) {
+        final CompletableFuture<OcResource[]> future = new CompletableFuture<>();
+        try {
+            OcPlatform.findResources(host, requestUri, EnumSet.of(OcConnectivityType.CT_DEFAULT),
+                    new OcPlatform.OnResourcesFoundListener() {
+                        @Override
+                        public void onResourcesFound(OcResource[] ocResources) {
+                            future.complete(ocResources);
+                        }
+
+                        @Override
+                        public void onFindResourcesFailed(Throwable throwable, String uri) {
+                            future.completeExceptionally(throwable);
+                        }
+                    });
+
+        } catch (OcException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Device info ("/oic/d") of a host, there is no failure callback so only a timeout ends a lost request
+     */
+    public static CompletableFuture<OcRepresentation> getDeviceInfo(String host) {
+        final CompletableFuture<OcRepresentation> future = new CompletableFuture<>();
+        try {
+            OcPlatform.getDeviceInfo(host, OcPlatform.WELL_KNOWN_DEVICE_QUERY, EnumSet.of(OcConnectivityType.CT_DEFAULT),
+                    new OcPlatform.OnDeviceFoundListener() {
+                        @Override
+                        public void onDeviceFound(OcRepresentation ocRepresentation) {
+                            future.complete(ocRepresentation);
+                        }
+                    });
+
+        } catch (OcException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ *******************************************************************
+ *
+ * Copyright 2017 Intel Corporation.
+ *
+ *-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=
+ */
+
+
+package org.iotivity.base.examples;
+
+import org.iotivity.base.OcConnectivityType;
+import org.iotivity.base.OcException;
+import org.iotivity.base.OcPlatform;
+import org.iotivity.base.OcPresenceHandle;
+
+import java.util.EnumSet;
+
+/**
+ * IotivityPresenceSource
+ *
+ * Presence events from the IoTivity stack. Subscribing with an empty host listens to
+ * multicast presence, so every server which has started presence is reported.
+ */
+public class IotivityPresenceSource implements PresenceSource {
+
+    private final String mHost;
+    private final String mResourceType;
+
+    private OcPresenceHandle mPresenceHandle;
+
+    public IotivityPresenceSource() {
+        this("", Light.OIC_TYPE_DEVICE_LIGHT);
+    }
+
+    public IotivityPresenceSource(String host, String resourceType) {
+        mHost = host;
+        mResourceType = resourceType;
+    }
+
+    @Override
+    public synchronized void subscribe(OcPlatform.OnPresenceListener listener) throws OcException {
+        if (mPresenceHandle == null) {
+            mPresenceHandle = OcPlatform.subscribePresence(mHost, mResourceType,
+                    EnumSet.of(OcConnectivityType.CT_DEFAULT), listener);
+        }
+    }
+
+    @Override
+    public synchronized void unsubscribe() throws OcException {
+        if (mPresenceHandle != null) {
+            OcPresenceHandle presenceHandle = mPresenceHandle;
+            mPresenceHandle = null;
+            OcPlatform.unsubscribePresence(presenceHandle);
+        }
+    }
+}
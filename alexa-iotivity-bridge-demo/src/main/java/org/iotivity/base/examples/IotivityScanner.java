@@ -79,6 +79,11 @@ public class IotivityScanner {
 
         startIotivityClient(frequency); // creates iotivityClient
 
+        // Stretch up to twice the frequency while stable, stale resources are purged after three times the frequency
+        DiscoveryScheduler discoveryScheduler = new DiscoveryScheduler(1, frequency, 2 * frequency);
+        iotivityClient.setDiscoveryScheduler(discoveryScheduler);
+        msg("Discovery schedule is " + discoveryScheduler);
+
         while (true) {
             try {
                 msg("Finding all resources of type " + Light.OIC_TYPE_DEVICE_LIGHT);
@@ -90,20 +95,12 @@ public class IotivityScanner {
                 msgError("Failed to invoke find resource API");
             }
 
-            sleep(frequency);
+            discoveryScheduler.awaitNextDiscovery();
 
             iotivityClient.cancelObserve();
         }
     }
 
-    private static void sleep(int seconds) {
-        try {
-            Thread.sleep(seconds * 1000);
-        } catch (InterruptedException e) {
-            msgError(e.toString());
-        }
-    }
-
     public static void msg(final String text) {
         DateFormat dateFormat = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss.SSS");
         Date date = new Date();
@@ -56,6 +56,8 @@ public class IotivityScannerClient implements
     private final Map<String, Resource> mResourceLookup = new ConcurrentHashMap<>();
     private final Map<String, Long> mStaleResourceUriLookup = new ConcurrentHashMap<>();
 
+    private DiscoveryScheduler mDiscoveryScheduler;
+
     public IotivityScannerClient(int frequency) {
         // Start running a task to collect stale resources (runs every 10 seconds)
         Timer timer = new Timer();
@@ -93,6 +95,7 @@ public class IotivityScannerClient implements
                 light.setUri(resourceUri);
 
                 mResourceLookup.put(resourceUri, light);
+                notifyDeviceSetChanged();
             }
 
             // Call a local method which will internally invoke "observe" API on the found resource
@@ -736,6 +739,18 @@ public class IotivityScannerClient implements
             IotivityScanner.msgError("Error code: " + errCode);
         }
         IotivityScanner.msgError("Observation of the found light resource has failed");
+        notifyDeviceSetChanged();
+    }
+
+    public void setDiscoveryScheduler(DiscoveryScheduler discoveryScheduler) {
+        mDiscoveryScheduler = discoveryScheduler;
+    }
+
+    private void notifyDeviceSetChanged() {
+        DiscoveryScheduler discoveryScheduler = mDiscoveryScheduler;
+        if (discoveryScheduler != null) {
+            discoveryScheduler.deviceSetChanged();
+        }
     }
 
     public synchronized void cancelObserve() {
@@ -803,6 +818,8 @@ public class IotivityScannerClient implements
                         mIotivityResourceLookup.remove(key);
                         mResourceLookup.remove(key);
                         mStaleResourceUriLookup.remove(key);
+
+                        notifyDeviceSetChanged();
                     }
                 }
 
@@ -0,0 +1,126 @@
+/*
+ *******************************************************************
+ *
+ * Copyright 2017 Intel Corporation.
+ *
+ *-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=
+ */
+
+
+package org.iotivity.base.examples;
+
+import java.text.CollationKey;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * LightDeviceIndex
+ *
+ * LightDeviceIndex keeps the light devices ordered by the collation key of their name and publishes
+ * them as an immutable, sorted snapshot. The snapshot is only rebuilt when a device is added, removed or renamed; power and
+ * brightness changes update the indexed LightDevice objects in place, and the unchanged snapshot is handed to the
+ * connected thing again because a shadow delta replaces the devices the connected thing holds.
+ */
+public class LightDeviceIndex {
+
+    private final List<Entry> mEntries = new ArrayList<>(); // sorted
+    private final Map<String, Entry> mEntryLookup = new HashMap<>(); // keyed by uri
+    private volatile ConnectedThing.LightDevice[] mSnapshot = new ConnectedThing.LightDevice[0];
+
+    /**
+     * Adds a device, or moves it if its name has changed since it was last indexed
+     *
+     * @return true if the snapshot has changed
+     */
+    public synchronized boolean update(ConnectedThing.LightDevice lightDevice) {
+        String uri = lightDevice.getUri();
+        CollationKey nameKey = lightDevice.getCollationKey();
+
+        Entry entry = mEntryLookup.get(uri);
+        if (entry != null) {
+            // the device replaces its key when its name changes
+            if ((entry.mLightDevice == lightDevice) && (entry.mNameKey == nameKey)) {
+                return false;
+            }
+            mEntries.remove(Collections.binarySearch(mEntries, entry));
+        }
+
+        entry = new Entry(uri, nameKey, lightDevice);
+        int index = Collections.binarySearch(mEntries, entry);
+        mEntries.add((index < 0) ? -(index + 1) : index, entry);
+        mEntryLookup.put(uri, entry);
+        rebuildSnapshot();
+        return true;
+    }
+
+    /**
+     * @return true if the snapshot has changed
+     */
+    public synchronized boolean remove(String uri) {
+        Entry entry = mEntryLookup.remove(uri);
+        if (entry == null) {
+            return false;
+        }
+        mEntries.remove(Collections.binarySearch(mEntries, entry));
+        rebuildSnapshot();
+        return true;
+    }
+
+    /**
+     * @return the devices sorted by name, the array must not be modified
+     */
+    public ConnectedThing.LightDevice[] getSnapshot() {
+        return mSnapshot;
+    }
+
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    private void rebuildSnapshot() {
+        ConnectedThing.LightDevice[] snapshot = new ConnectedThing.LightDevice[mEntries.size()];
+        for (int i = 0; i < snapshot.length; ++i) {
+            snapshot[i] = mEntries.get(i).mLightDevice;
+        }
+        mSnapshot = snapshot;
+    }
+
+    /**
+     * A device with the name key it is sorted by, ties are broken by uri so every entry has one position
+     */
+    static class Entry implements Comparable<Entry> {
+
+        private final String mUri;
+        private final CollationKey mNameKey;
+        private final ConnectedThing.LightDevice mLightDevice;
+
+        Entry(String uri, CollationKey nameKey, ConnectedThing.LightDevice lightDevice) {
+            mUri = uri;
+            mNameKey = nameKey;
+            mLightDevice = lightDevice;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            int result = mNameKey.compareTo(other.mNameKey);
+            return (result != 0) ? result : mUri.compareTo(other.mUri);
+        }
+    }
+}
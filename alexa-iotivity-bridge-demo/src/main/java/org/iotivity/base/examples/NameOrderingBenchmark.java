@@ -0,0 +1,142 @@
+/*
+ *******************************************************************
+ *
+ * Copyright 2017 Intel Corporation.
+ *
+ *-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=
+ */
+
+
+package org.iotivity.base.examples;
+
+import com.amazonaws.services.iot.client.sample.sampleUtil.CommandArguments;
+
+import java.text.Collator;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Random;
+
+/**
+ * NameOrderingBenchmark
+ *
+ * Compares sorting light devices by name the way IotivityClient used to (getName() and
+ * compareToIgnoreCase on every comparison), with a locale aware collator on every comparison,
+ * and with the collation keys cached by each LightDevice.
+ *
+ * Usage: NameOrderingBenchmark -devices 1000,10000 -iterations 50
+ */
+public class NameOrderingBenchmark {
+
+    private static final String[] ROOMS = {"Kitchen", "Living room", "Bedroom", "Bathroom", "Hall", "Office",
+            "Garage", "Porch", "Cellar", "Attic", "Dining room", "Nursery", "Study", "Caf\u00e9", "\u00dcber room"};
+
+    private static volatile int sink;
+
+    interface Sorter {
+        void sort(ConnectedThing.LightDevice[] lightDevices);
+    }
+
+    private static ConnectedThing.LightDevice[] createDevices(int count) {
+        Random random = new Random(count);
+        ConnectedThing.LightDevice[] lightDevices = new ConnectedThing.LightDevice[count];
+        for (int i = 0; i < count; ++i) {
+            String name = ROOMS[random.nextInt(ROOMS.length)] + " light " + random.nextInt(count);
+            lightDevices[i] = new ConnectedThing.LightDevice("/benchmark/light/" + i, name);
+        }
+        return lightDevices;
+    }
+
+    /**
+     * Sorts fresh copies of the devices and logs the average time per sort
+     */
+    private static void run(String name, ConnectedThing.LightDevice[] lightDevices, int iterations, Sorter sorter) {
+        // warm up
+        for (int i = 0; i < iterations; ++i) {
+            ConnectedThing.LightDevice[] copy = lightDevices.clone();
+            sorter.sort(copy);
+            sink += copy[0].getBrightness();
+        }
+
+        long totalNanos = 0;
+        for (int i = 0; i < iterations; ++i) {
+            ConnectedThing.LightDevice[] copy = lightDevices.clone();
+            long start = System.nanoTime();
+            sorter.sort(copy);
+            totalNanos += System.nanoTime() - start;
+            sink += copy[0].getBrightness();
+        }
+
+        msg(String.format("%6d devices  %-28s %9.3f ms per sort", lightDevices.length, name, totalNanos / 1e6 / iterations));
+    }
+
+    public static void main(String args[]) {
+        CommandArguments arguments = CommandArguments.parse(args);
+        int iterations = Integer.parseInt(arguments.get("iterations", "50"));
+
+        final Collator collator = Collator.getInstance();
+        collator.setStrength(Collator.SECONDARY);
+
+        for (String devices : arguments.get("devices", "1000,10000").split(",")) {
+            ConnectedThing.LightDevice[] lightDevices = createDevices(Integer.parseInt(devices.trim()));
+
+            run("getName, compareToIgnoreCase", lightDevices, iterations, new Sorter() {
+                @Override
+                public void sort(ConnectedThing.LightDevice[] lightDevices) {
+                    Arrays.sort(lightDevices, new Comparator<ConnectedThing.LightDevice>() {
+                        @Override
+                        public int compare(ConnectedThing.LightDevice lhs, ConnectedThing.LightDevice rhs) {
+                            return lhs.getName().compareToIgnoreCase(rhs.getName());
+                        }
+                    });
+                }
+            });
+
+            run("getName, collator", lightDevices, iterations, new Sorter() {
+                @Override
+                public void sort(ConnectedThing.LightDevice[] lightDevices) {
+                    Arrays.sort(lightDevices, new Comparator<ConnectedThing.LightDevice>() {
+                        @Override
+                        public int compare(ConnectedThing.LightDevice lhs, ConnectedThing.LightDevice rhs) {
+                            return collator.compare(lhs.getName(), rhs.getName());
+                        }
+                    });
+                }
+            });
+
+            run("cached collation keys", lightDevices, iterations, new Sorter() {
+                @Override
+                public void sort(ConnectedThing.LightDevice[] lightDevices) {
+                    Arrays.sort(lightDevices, new Comparator<ConnectedThing.LightDevice>() {
+                        @Override
+                        public int compare(ConnectedThing.LightDevice lhs, ConnectedThing.LightDevice rhs) {
+                            return lhs.getCollationKey().compareTo(rhs.getCollationKey());
+                        }
+                    });
+                }
+            });
+        }
+    }
+
+    public static void msg(final String text) {
+        DateFormat dateFormat = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss.SSS");
+        Date date = new Date();
+        System.out.println(dateFormat.format(date) + " " + text);
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ *******************************************************************
+ *
+ * Copyright 2017 Intel Corporation.
+ *
+ *-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=
+ */
+
+
+package org.iotivity.base.examples;
+
+import com.amazonaws.services.iot.client.sample.sampleUtil.CommandArguments;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * RegistryMemoryBenchmark
+ *
+ * Measures the heap used per light for the lookups of IotivityClient: the four maps it used to
+ * keep (OcResource handles, model resources, light devices and link parents, with every light
+ * having three links) against one DeviceRegistry. The model objects themselves are the same in
+ * both cases and are reported separately. OcResource handles need the native stack, so a shared
+ * placeholder stands in for them.
+ *
+ * Usage: RegistryMemoryBenchmark -devices 1000,10000
+ */
+public class RegistryMemoryBenchmark {
+
+    private static final Object HANDLE = new Object();
+
+    private static Light[] sLights;
+    private static ConnectedThing.LightDevice[] sLightDevices;
+    private static Object sLookups;
+
+    private static void createModels(int count) {
+        sLights = new Light[count];
+        sLightDevices = new ConnectedThing.LightDevice[count];
+        for (int i = 0; i < count; ++i) {
+            String uri = "/ocf/light/" + i;
+            Light light = new Light();
+            light.setUri(uri);
+            BinarySwitch binarySwitch = new BinarySwitch();
+            binarySwitch.setUri("/ocf/binarySwitch/" + i);
+            light.setBinarySwitch(binarySwitch);
+            Brightness brightness = new Brightness();
+            brightness.setUri("/ocf/brightness/" + i);
+            light.setBrightness(brightness);
+            Configuration config = new Configuration();
+            config.setUri("/ocf/config/" + i);
+            light.setConfiguration(config);
+            sLights[i] = light;
+            sLightDevices[i] = new ConnectedThing.LightDevice(uri, "Light " + i);
+        }
+    }
+
+    private static Service[] getServices(Light light) {
+        return new Service[] {light.getBinarySwitch(), light.getBrightness(), light.getConfiguration()};
+    }
+
+    private static Object createMaps() {
+        Map<String, Object> iotivityResourceLookup = new ConcurrentHashMap<>();
+        Map<String, Resource> resourceLookup = new ConcurrentHashMap<>();
+        Map<String, ConnectedThing.LightDevice> connectedThingLookup = new ConcurrentHashMap<>();
+        Map<String, String> linkParentUriLookup = new ConcurrentHashMap<>();
+        for (int i = 0; i < sLights.length; ++i) {
+            Light light = sLights[i];
+            iotivityResourceLookup.put(light.getUri(), HANDLE);
+            resourceLookup.put(light.getUri(), light);
+            connectedThingLookup.put(light.getUri(), sLightDevices[i]);
+            for (Service service : getServices(light)) {
+                iotivityResourceLookup.put(service.getUri(), HANDLE);
+                resourceLookup.put(service.getUri(), service);
+                linkParentUriLookup.put(service.getUri(), light.getUri());
+            }
+        }
+        return new Object[] {iotivityResourceLookup, resourceLookup, connectedThingLookup, linkParentUriLookup};
+    }
+
+    private static Object createRegistry() {
+        DeviceRegistry deviceRegistry = new DeviceRegistry();
+        for (int i = 0; i < sLights.length; ++i) {
+            Light light = sLights[i];
+            DeviceRegistry.Entry entry = deviceRegistry.addLight(light.getUri(), light);
+            entry.setLightDevice(sLightDevices[i]);
+            entry.setLastSeenMillis(System.currentTimeMillis());
+            for (Service service : getServices(light)) {
+                deviceRegistry.addLink(entry, service.getUri(), null, service);
+            }
+        }
+        return deviceRegistry;
+    }
+
+    private static long usedMemory() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; ++i) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    public static void main(String args[]) throws InterruptedException {
+        CommandArguments arguments = CommandArguments.parse(args);
+
+        for (String devices : arguments.get("devices", "1000,10000").split(",")) {
+            int count = Integer.parseInt(devices.trim());
+
+            long baseline = usedMemory();
+            createModels(count);
+            long models = usedMemory();
+
+            sLookups = createMaps();
+            long maps = usedMemory();
+            sLookups = null;
+
+            long beforeRegistry = usedMemory();
+            sLookups = createRegistry();
+            long registry = usedMemory();
+            sLookups = null;
+
+            msg(String.format("%6d devices  models %5d bytes, four maps %5d bytes, registry %5d bytes per device",
+                    count, (models - baseline) / count, (maps - models) / count, (registry - beforeRegistry) / count));
+
+            sLights = null;
+            sLightDevices = null;
+        }
+    }
+
+    public static void msg(final String text) {
+        DateFormat dateFormat = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss.SSS");
+        Date date = new Date();
+        System.out.println(dateFormat.format(date) + " " + text);
+    }
+}
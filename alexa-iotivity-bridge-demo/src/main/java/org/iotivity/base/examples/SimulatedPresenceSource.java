@@ -0,0 +1,130 @@
+/*
+ *******************************************************************
+ *
+ * Copyright 2017 Intel Corporation.
+ *
+ *-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=-=
+ */
+
+
+package org.iotivity.base.examples;
+
+import org.iotivity.base.OcPlatform;
+import org.iotivity.base.OcPresenceStatus;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * SimulatedPresenceSource
+ *
+ * A local stand in for IoTivity presence, so that the presence mode can be exercised
+ * without real devices. Every period one of the configured hosts is picked at random and
+ * reported as arriving (OK) or leaving (STOPPED or TIMEOUT). Events can also be fired directly.
+ */
+public class SimulatedPresenceSource implements PresenceSource {
+
+    private final List<String> mHosts = new CopyOnWriteArrayList<>();
+    private final Set<String> mPresentHosts = new HashSet<>();
+    private final Random mRandom = new Random();
+    private final long mPeriodMillis;
+
+    private OcPlatform.OnPresenceListener mListener;
+    private Timer mTimer;
+    private int mNonce;
+
+    public SimulatedPresenceSource(List<String> hosts, int periodSeconds) {
+        for (String host : hosts) {
+            if (!host.trim().isEmpty()) {
+                mHosts.add(host.trim());
+            }
+        }
+        mPeriodMillis = Math.max(1, periodSeconds) * 1000L;
+    }
+
+    @Override
+    public synchronized void subscribe(OcPlatform.OnPresenceListener listener) {
+        mListener = listener;
+        if ((mTimer == null) && (!mHosts.isEmpty())) {
+            mTimer = new Timer();
+            mTimer.schedule(new PresenceTask(), mPeriodMillis, mPeriodMillis);
+        }
+    }
+
+    @Override
+    public synchronized void unsubscribe() {
+        if (mTimer != null) {
+            mTimer.cancel();
+            mTimer = null;
+        }
+        mListener = null;
+    }
+
+    public void addHost(String host) {
+        mHosts.add(host);
+    }
+
+    /**
+     * Delivers a presence event for a host to the subscribed listener.
+     */
+    public void fire(OcPresenceStatus presenceStatus, String host) {
+        OcPlatform.OnPresenceListener listener;
+        int nonce;
+        synchronized (this) {
+            listener = mListener;
+            if (OcPresenceStatus.OK == presenceStatus) {
+                mPresentHosts.add(host);
+            } else {
+                mPresentHosts.remove(host);
+            }
+            nonce = ++mNonce;
+        }
+
+        if (listener != null) {
+            AlexaIotivityBridgeDemo.msg("Simulated presence " + presenceStatus + " for host " + host);
+            listener.onPresence(presenceStatus, nonce, host);
+        }
+    }
+
+    class PresenceTask extends TimerTask {
+        @Override
+        public void run() {
+            try {
+                String host = mHosts.get(mRandom.nextInt(mHosts.size()));
+                boolean present;
+                synchronized (SimulatedPresenceSource.this) {
+                    present = mPresentHosts.contains(host);
+                }
+
+                if (present) {
+                    fire(mRandom.nextBoolean() ? OcPresenceStatus.STOPPED : OcPresenceStatus.TIMEOUT, host);
+                } else {
+                    fire(OcPresenceStatus.OK, host);
+                }
+
+            } catch (Exception e) {
+                AlexaIotivityBridgeDemo.msgError("Error running simulated presence: " + e.toString());
+                e.printStackTrace();
+            }
+        }
+    }
+}